@@ -0,0 +1,223 @@
+package check;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+// Runs the same structural test suite the plain JUnit way, with the console launcher, and the way
+// `java -jar checkthat.jar` does, with BatchGenerator and the TestInstrumenter agent. Every run
+// is a JVM of its own in an empty directory, so the times include starting up.
+// Usage: java -cp target/benchmarks.jar check.AgentComparison [--classes 100] [--tests 5]
+//        [--members 20] [--runs 5] [--threads 1] [--junit target/junit/junit-platform-console-standalone.jar]
+// Halfway through every test an assertion checks that the class exists, which fails as long as
+// it was not written. JUnit ends the test there, the agent lets the rest of the chain run, so the
+// report counts the lines generated as well as the time taken.
+public class AgentComparison {
+
+    private int classes = 100;
+    private int tests = 5;
+    private int members = 20;
+    private int runs = 5;
+    private int threads = 1;
+    private Path junit = Paths.get("target", "junit", "junit-platform-console-standalone.jar");
+
+    public static void main(String[] args) throws Exception {
+        AgentComparison comparison = new AgentComparison();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--classes":
+                    comparison.classes = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--tests":
+                    comparison.tests = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--members":
+                    comparison.members = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--runs":
+                    comparison.runs = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    comparison.threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--junit":
+                    comparison.junit = Paths.get(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        comparison.run();
+    }
+
+    void run() throws Exception {
+        if (!Files.isRegularFile(junit)) {
+            throw new IllegalStateException("The JUnit console launcher is not at " + junit + ", build with mvn package first");
+        }
+        // Kept when a run fails, for its output
+        Path work = Files.createTempDirectory("checkthat-agent");
+        Path compiled = compileSuite(work);
+        Path agent = agentJar(work);
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        // The runs start in directories of their own
+        junit = junit.toAbsolutePath();
+        String generator = Stream.of(System.getProperty("java.class.path").split(File.pathSeparator))
+                .map(entry -> Paths.get(entry).toAbsolutePath().toString())
+                .collect(Collectors.joining(File.pathSeparator));
+
+        List<Long> junitTimes = new ArrayList<>();
+        List<Long> agentTimes = new ArrayList<>();
+        long[] junitOutput = null;
+        long[] agentOutput = null;
+        for (int run = 1; run <= runs; run++) {
+            Path directory = Files.createDirectories(work.resolve("junit" + run));
+            junitTimes.add(time(directory, java, "-cp", String.join(File.pathSeparator, junit.toString(), generator, compiled.toString()),
+                    "org.junit.platform.console.ConsoleLauncher", "execute", "--disable-banner", "--details=none",
+                    "--select-package=suite"));
+            junitOutput = generated(directory);
+
+            directory = Files.createDirectories(work.resolve("agent" + run));
+            agentTimes.add(time(directory, java, "-javaagent:" + agent, "-cp", generator, "check.BatchGenerator",
+                    "--no-cache", "--threads", String.valueOf(threads), compiled + File.pathSeparator + junit));
+            agentOutput = generated(directory);
+        }
+
+        System.out.printf("%d test classes, %d tests, %d runs%n", classes, classes * tests, runs);
+        System.out.printf("%-8s %12s %12s %8s %10s%n", "path", "median ms", "min ms", "files", "lines");
+        print("junit", junitTimes, junitOutput);
+        print("agent", agentTimes, agentOutput);
+        System.out.printf("The agent path takes %.2f times as long as JUnit and generates %.2f times as many lines%n",
+                (double) median(agentTimes) / median(junitTimes), (double) agentOutput[1] / junitOutput[1]);
+        delete(work);
+    }
+
+    // Writes the test sources and compiles them, returns the directory of the classes
+    private Path compileSuite(Path work) throws IOException {
+        Path sources = Files.createDirectories(work.resolve("src").resolve("suite"));
+        Random random = new Random(42);
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < classes; i++) {
+            Path file = sources.resolve("Structure" + i + "Test.java");
+            Files.writeString(file, testClass(i, random));
+            files.add(file.toString());
+        }
+
+        Path compiled = Files.createDirectories(work.resolve("classes"));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<String> arguments = new ArrayList<>(List.of("-d", compiled.toString(),
+                "-cp", junit + File.pathSeparator + System.getProperty("java.class.path")));
+        arguments.addAll(files);
+        if (compiler.run(null, null, null, arguments.toArray(new String[0])) != 0) {
+            throw new IllegalStateException("The generated test suite does not compile");
+        }
+        return compiled;
+    }
+
+    private String testClass(int index, Random random) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("package suite;\n\n")
+                .append("import static check.CheckThat.*;\n")
+                .append("import static check.CheckThat.Condition.*;\n")
+                .append("import static org.junit.jupiter.api.Assertions.*;\n\n")
+                .append("import org.junit.jupiter.api.Test;\n\n")
+                .append("public class Structure").append(index).append("Test {\n");
+        for (int test = 0; test < tests; test++) {
+            String name = "gen.Type" + (index * tests + test);
+            sb.append("\n    @Test\n    public void type").append(test).append("() {\n")
+                    .append("        theClass(\"").append(name).append("\").thatIs(VISIBLE_TO_ALL);\n");
+            for (int member = 0; member < members; member++) {
+                if (member == members / 2) {
+                    sb.append("        assertDoesNotThrow(() -> Class.forName(\"").append(name).append("\"));\n");
+                }
+                if (random.nextBoolean()) {
+                    sb.append("        it.hasField(\"value").append(member)
+                            .append(": HashMap of String to List of Integer\").thatIs(VISIBLE_TO_NONE).thatHas(GETTER, SETTER);\n");
+                } else {
+                    sb.append("        it.hasMethod(\"compute").append(member)
+                            .append("\", withParams(\"limit: int\", \"List of String\")).thatIs(VISIBLE_TO_ALL).thatReturns(\"long\");\n");
+                }
+            }
+            sb.append("        it.has(TEXTUAL_REPRESENTATION).thatHas(EQUALITY_CHECK);\n    }\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    // A jar with nothing but the manifest that makes TestInstrumenter an agent, the class itself
+    // is on the class path
+    private static Path agentJar(Path work) throws IOException {
+        Path jar = work.resolve("agent.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Premain-Class", TestInstrumenter.class.getName());
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            out.finish();
+        }
+        return jar;
+    }
+
+    // Runs the command in the directory, returns the milliseconds it took
+    private static long time(Path directory, String... command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).directory(directory.toFile())
+                .redirectErrorStream(true).redirectOutput(directory.resolve("output.txt").toFile()).start();
+        int exit = process.waitFor();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        // The console launcher exits with 1 when tests failed, which they do
+        if (exit > 1) {
+            throw new IllegalStateException(String.join(" ", command) + " exited with " + exit + ", see "
+                    + directory.resolve("output.txt"));
+        }
+        return millis;
+    }
+
+    // The number of classes generated into the directory and their lines
+    private static long[] generated(Path directory) throws IOException {
+        long[] counts = new long[2];
+        Path generated = directory.resolve("gen");
+        if (!Files.isDirectory(generated)) {
+            return counts;
+        }
+        try (Stream<Path> files = Files.list(generated)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.toString().endsWith(".java")) {
+                    counts[0]++;
+                    counts[1] += Files.readAllLines(file).size();
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static void print(String path, List<Long> times, long[] output) {
+        System.out.printf("%-8s %12d %12d %8d %10d%n", path, median(times), Collections.min(times), output[0], output[1]);
+    }
+
+    private static long median(List<Long> times) {
+        List<Long> sorted = new ArrayList<>(times);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
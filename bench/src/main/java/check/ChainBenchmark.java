@@ -0,0 +1,36 @@
+package check;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// A whole test class worth of fluent calls, from theClass() to the last condition, with every
+// write the calls make on the way. With -jvmArgsAppend -Dcheckthat.deferWrites=true the class is
+// written once at the end instead.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dcheckthat.output=memory")
+public class ChainBenchmark {
+
+    @Param({"small", "medium", "huge"})
+    public String size;
+
+    @Benchmark
+    public CheckThat chain() {
+        CheckThat model = Chains.describe("bench.chain.Item", Chains.size(size));
+        Chains.reset();
+        return model;
+    }
+}
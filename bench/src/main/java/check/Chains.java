@@ -0,0 +1,68 @@
+package check;
+
+import static check.CheckThat.*;
+import static check.CheckThat.Condition.*;
+
+// Fluent chains like the ones lab tests write, for classes of any number of members.
+// The members go round four kinds: a field with a getter and a setter, a method with generic
+// parameters, a constant with a value and a method that can raise exceptions. Every class has a
+// constructor, a textual representation and an equality check on top.
+final class Chains {
+
+    static final int SMALL = 8;
+    static final int MEDIUM = 80;
+    static final int HUGE = 400;
+
+    private Chains() {
+    }
+
+    static int size(String name) {
+        switch (name) {
+            case "small":
+                return SMALL;
+            case "medium":
+                return MEDIUM;
+            case "huge":
+                return HUGE;
+            default:
+                throw new IllegalArgumentException("Unknown size: " + name);
+        }
+    }
+
+    static CheckThat describe(String className, int members) {
+        CheckThat model = theClass(className, withInterfaces("Comparable<Item>", "java.io.Serializable"))
+                .thatIs(FULLY_IMPLEMENTED, INSTANCE_LEVEL, VISIBLE_TO_ALL);
+        model.hasConstructor(withParams("name: String", "price: int")).thatIs(VISIBLE_TO_ALL);
+        for (int i = 0; i < members; i++) {
+            switch (i % 4) {
+                case 0:
+                    model.hasField("value" + i + ": HashMap of String to List of Integer")
+                            .thatIs(INSTANCE_LEVEL, MODIFIABLE, VISIBLE_TO_NONE).thatHas(GETTER, SETTER);
+                    break;
+                case 1:
+                    model.hasMethod("total" + i, withParams("List of Integer", "limit: int", "vararg of double"))
+                            .thatIs(INSTANCE_LEVEL, VISIBLE_TO_ALL).thatReturns("long");
+                    break;
+                case 2:
+                    model.hasField("LIMIT" + i + ": int")
+                            .thatIs(USABLE_WITHOUT_INSTANCE, NOT_MODIFIABLE, VISIBLE_TO_ALL).thatHasValue(i);
+                    break;
+                default:
+                    model.hasMethod("names" + i, withNoParams()).thatIs(VISIBLE_TO_ALL)
+                            .thatReturns("array of String").thatCanRaise("java.io.IOException", "IllegalStateException");
+                    break;
+            }
+        }
+        model.has(TEXTUAL_REPRESENTATION).thatHas(EQUALITY_CHECK);
+        return model;
+    }
+
+    // Ends the class of this thread, writes it if writes are deferred, and lets its file be
+    // generated again, so that the same chain can run once more in the same JVM
+    static void reset() {
+        CheckThat.endTestClass();
+        CheckThat.flushPendingWrites();
+        CheckThat.allowRegeneration();
+        Variable.resetCounter();
+    }
+}
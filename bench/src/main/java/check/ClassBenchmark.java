@@ -0,0 +1,67 @@
+package check;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Rendering and writing a whole class, and generating the methods of EQUALITY_CHECK for it.
+// The files are kept in memory, -jvmArgsAppend -Dcheckthat.output=direct writes them to disk.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcheckthat.output=memory")
+public class ClassBenchmark {
+
+    @Param({"small", "medium", "huge"})
+    public String size;
+
+    private CheckThat model;
+    private int revision;
+
+    @Setup
+    public void setUp() {
+        model = Chains.describe("bench.model.Item", Chains.size(size));
+        // The field writeChanged() gives a new value
+        model.hasField("revision: int");
+    }
+
+    @Benchmark
+    public String classToString() {
+        return model.toString();
+    }
+
+    @Benchmark
+    public CheckThat.Method equalsMethod() {
+        return model.equalsMethod();
+    }
+
+    @Benchmark
+    public CheckThat.Method hashCodeMethod() {
+        return model.hashCodeMethod();
+    }
+
+    // Renders the class and finds it the same as the file written last
+    @Benchmark
+    public CheckThat writeUnchanged() {
+        model.writeToFile();
+        return model;
+    }
+
+    // Changes one field and writes the class again
+    @Benchmark
+    public CheckThat writeChanged() {
+        return model.thatHasValue(revision++);
+    }
+}
@@ -0,0 +1,114 @@
+package check;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Generates the same synthetic suite on one thread and then on many, several times, and fails
+// unless every class comes out exactly as it did on one thread.
+// Usage: java -cp target/benchmarks.jar check.ConcurrencyStress [--seed N] [--classes 500]
+//        [--members 60] [--threads N] [--rounds 5]
+// The threads default to the number of processors, but at least 4. Every round starts the
+// classes in another order. The files are kept in memory and written on every call, so that the
+// threads interleave as much as they can. Exits with 1 if some class differs.
+public class ConcurrencyStress {
+
+    private long seed = 42;
+    private int classes = 500;
+    private int members = 60;
+    private int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private int rounds = 5;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("checkthat.output", "memory");
+        ConcurrencyStress stress = new ConcurrencyStress();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--seed":
+                    stress.seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--classes":
+                    stress.classes = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--members":
+                    stress.members = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    stress.threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--rounds":
+                    stress.rounds = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        System.exit(stress.run() ? 0 : 1);
+    }
+
+    // Returns false if some class generated in parallel differs from the one generated on one thread
+    boolean run() throws Exception {
+        generate("serial", 1, new Random(seed));
+        int differences = 0;
+        for (int round = 1; round <= rounds; round++) {
+            String packageName = "parallel" + round;
+            generate(packageName, threads, new Random(seed + round));
+            Map<Path, byte[]> files = CheckThat.generatedFiles();
+            int differing = 0;
+            for (int i = 0; i < classes; i++) {
+                String expected = body(files.get(Paths.get("stress", "serial", "Type" + i + ".java")));
+                String actual = body(files.get(Paths.get("stress", packageName, "Type" + i + ".java")));
+                if (expected == null || !expected.equals(actual)) {
+                    if (differing < 10) {
+                        System.out.println("Type" + i + " differs on " + threads + " threads in round " + round);
+                    }
+                    differing++;
+                }
+            }
+            System.out.printf("Round %d: %d classes on %d threads, %d differ from the ones generated on one thread%n",
+                    round, classes, threads, differing);
+            differences += differing;
+        }
+        return differences == 0;
+    }
+
+    // Generates the suite into the package stress.<packageName>, starting the classes in random order
+    private void generate(String packageName, int threadCount, Random order) throws Exception {
+        List<SyntheticSuite.ClassSpec> suite = SyntheticSuite.classes(seed, "stress." + packageName, classes, members);
+        List<SyntheticSuite.ClassSpec> shuffled = new ArrayList<>(suite);
+        Collections.shuffle(shuffled, order);
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (SyntheticSuite.ClassSpec spec : shuffled) {
+                futures.add(pool.submit(() -> {
+                    SyntheticSuite.describe(spec);
+                    CheckThat.endTestClass();
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // The source without its package declaration, or null if the class was not generated
+    private static String body(byte[] content) {
+        if (content == null) {
+            return null;
+        }
+        String text = new String(content, StandardCharsets.UTF_8);
+        return text.substring(text.indexOf('\n'));
+    }
+}
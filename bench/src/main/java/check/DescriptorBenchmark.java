@@ -0,0 +1,66 @@
+package check;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Parsing descriptors and rendering the members declared with them
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcheckthat.output=memory")
+public class DescriptorBenchmark {
+
+    @Param({"price: int", "tags: array of String", "stock: HashMap of String to List of Integer"})
+    public String descriptor;
+
+    private CheckThat.Field field;
+    private CheckThat.Method method;
+
+    @Setup
+    public void setUp() {
+        CheckThat model = Chains.describe("bench.model.Item", Chains.SMALL);
+        field = model.new Field(descriptor);
+        method = model.new Method("total", CheckThat.withParams(descriptor, "limit: int", "vararg of double"));
+        method.returnType = "long";
+    }
+
+    @Benchmark
+    public CheckThat.Variable parseVariable() {
+        return new CheckThat.Variable(descriptor);
+    }
+
+    // Every descriptor is parsed from scratch
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"-Dcheckthat.output=memory", "-Dcheckthat.typeCacheSize=0"})
+    public CheckThat.Variable parseVariableUncached() {
+        return new CheckThat.Variable(descriptor);
+    }
+
+    @Benchmark
+    public String withParams() {
+        return CheckThat.withParams(descriptor, "limit: int", "List of Integer", "vararg of double");
+    }
+
+    @Benchmark
+    public String fieldToString() {
+        return field.toString();
+    }
+
+    @Benchmark
+    public String methodToString() {
+        return method.toString();
+    }
+}
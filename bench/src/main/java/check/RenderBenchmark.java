@@ -0,0 +1,119 @@
+package check;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// What rendering a class with hundreds of members allocates, run it with -prof gc and compare
+// gc.alloc.rate.norm:
+// - joined() renders the way CheckThat did before the Emitter: every member to its own string,
+//   the sections joined, then split into lines and joined again to indent them,
+// - fresh() renders every member again through the Emitter, as the first write of a class does,
+// - cached() renders from the members' cached text, as every later write does,
+// - streamed() is cached() into a buffer that is reused instead of a new String,
+// - encoded() is what a write renders and encodes to UTF-8 before handing it to the output,
+// - written() renders through a buffered UTF-8 Writer, as a caller of render(Appendable) would.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcheckthat.output=memory")
+public class RenderBenchmark {
+
+    @Param({"200", "500"})
+    public int members;
+
+    private CheckThat model;
+    private List<CheckThat.Member> rendered;
+    // The package, the imports and the class header, the same for every rendering
+    private String header;
+    private final StringBuilder buffer = new StringBuilder();
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    @Setup
+    public void setUp() {
+        model = Chains.describe("bench.render.Item", members);
+        String text = model.toString();
+        rendered = model.members();
+        header = text.substring(0, text.indexOf(" {\n") + 3);
+        if (!joined().equals(text)) {
+            throw new IllegalStateException("The joined rendering differs from CheckThat.toString()");
+        }
+    }
+
+    @Benchmark
+    public String joined() {
+        List<String> fields = new ArrayList<>();
+        List<String> methods = new ArrayList<>();
+        for (CheckThat.Member member : rendered) {
+            (member instanceof CheckThat.Field ? fields : methods).add(member.toString());
+        }
+        List<String> sections = new ArrayList<>();
+        if (!fields.isEmpty()) {
+            sections.add(String.join("\n", fields));
+        }
+        sections.add(String.join("\n\n", methods));
+        return header + indented(String.join("\n\n", sections)) + "\n}";
+    }
+
+    @Benchmark
+    public String fresh() {
+        for (CheckThat.Member member : rendered) {
+            member.changed();
+        }
+        return model.toString();
+    }
+
+    @Benchmark
+    public String cached() {
+        return model.toString();
+    }
+
+    @Benchmark
+    public StringBuilder streamed() throws IOException {
+        buffer.setLength(0);
+        model.render(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] encoded() throws IOException {
+        return model.encoded();
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream written() throws IOException {
+        bytes.reset();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+            model.render(writer);
+        }
+        return bytes;
+    }
+
+    private static String indented(String text) {
+        List<String> lines = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            lines.add((line.isEmpty() ? "" : "    ") + line);
+        }
+        return String.join("\n", lines);
+    }
+}
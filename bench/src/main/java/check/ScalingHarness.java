@@ -0,0 +1,181 @@
+package check;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Generates synthetic suites of increasing size on increasing numbers of threads and reports
+// throughput, latency percentiles of the chains, peak heap and the number of files generated.
+// Usage: java -cp target/benchmarks.jar check.ScalingHarness [--seed N] [--sizes 250,500,1000,2000]
+//        [--threads 1,2,4] [--members 200] [--max-growth 2.0]
+// The files are kept in memory and written once per class, as BatchGenerator does. Exits with 1
+// if, on any number of threads, the time per class of the largest suite is more than max-growth
+// times the one of the smallest, that is if generation scales super-linearly.
+public class ScalingHarness {
+
+    private long seed = 42;
+    private int[] sizes = {250, 500, 1000, 2000};
+    private int[] threadCounts = {1, 2, 4};
+    private int members = 200;
+    private double maxGrowth = 2.0;
+    private int runs = 0;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("checkthat.output", "memory");
+        ScalingHarness harness = new ScalingHarness();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--seed":
+                    harness.seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--sizes":
+                    harness.sizes = numbers(args[i + 1]);
+                    break;
+                case "--threads":
+                    harness.threadCounts = numbers(args[i + 1]);
+                    break;
+                case "--members":
+                    harness.members = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--max-growth":
+                    harness.maxGrowth = Double.parseDouble(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        CheckThat.setDeferWrites(true);
+        System.exit(harness.run() ? 0 : 1);
+    }
+
+    // Returns false if generation scaled super-linearly on some number of threads
+    boolean run() throws Exception {
+        // The first run only warms the JIT up
+        measure(sizes[0], threadCounts[threadCounts.length - 1]);
+
+        System.out.printf("%8s %8s %12s %10s %10s %10s %10s %8s%n",
+                "classes", "threads", "classes/s", "p50 ms", "p90 ms", "p99 ms", "heap MB", "files");
+        boolean linear = true;
+        for (int threads : threadCounts) {
+            List<Result> results = new ArrayList<>();
+            for (int size : sizes) {
+                Result result = measure(size, threads);
+                results.add(result);
+                System.out.println(result);
+            }
+            Result first = results.get(0);
+            Result last = results.get(results.size() - 1);
+            double growth = last.nanosPerClass() / first.nanosPerClass();
+            if (growth > maxGrowth) {
+                System.out.printf("Super-linear on %d threads: a class takes %.2f times as long with %d classes as with %d%n",
+                        threads, growth, last.classes, first.classes);
+                linear = false;
+            }
+        }
+        return linear;
+    }
+
+    private Result measure(int size, int threads) throws Exception {
+        String packageName = "scale.run" + (++runs);
+        List<SyntheticSuite.ClassSpec> classes = SyntheticSuite.classes(seed, packageName, size, members);
+        long[] latencies = new long[classes.size()];
+
+        System.gc();
+        long heapBefore = resetPeakHeap();
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < classes.size(); i++) {
+                int index = i;
+                futures.add(pool.submit(() -> {
+                    long chainStart = System.nanoTime();
+                    SyntheticSuite.describe(classes.get(index));
+                    CheckThat.endTestClass();
+                    latencies[index] = System.nanoTime() - chainStart;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        CheckThat.flushPendingWrites();
+        long nanos = System.nanoTime() - start;
+
+        Path directory = Paths.get("scale", "run" + runs);
+        long files = CheckThat.generatedFiles().keySet().stream().filter(path -> path.startsWith(directory)).count();
+        return new Result(size, threads, nanos, latencies, peakHeap() - heapBefore, files);
+    }
+
+    // Resets the peak usage of the heap pools, returns the heap in use
+    private static long resetPeakHeap() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static int[] numbers(String list) {
+        return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    static class Result {
+
+        final int classes;
+        final int threads;
+        final long nanos;
+        final long[] latencies;
+        final long heap;
+        final long files;
+
+        Result(int classes, int threads, long nanos, long[] latencies, long heap, long files) {
+            this.classes = classes;
+            this.threads = threads;
+            this.nanos = nanos;
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+            this.heap = heap;
+            this.files = files;
+        }
+
+        double nanosPerClass() {
+            return (double) nanos / classes;
+        }
+
+        private double percentile(int percent) {
+            return latencies[Math.min(latencies.length - 1, latencies.length * percent / 100)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%8d %8d %12.1f %10.2f %10.2f %10.2f %10.1f %8d",
+                    classes, threads, classes * 1e9 / nanos, percentile(50), percentile(90), percentile(99),
+                    heap / (1024.0 * 1024.0), files);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package check;
+
+import static check.CheckThat.*;
+import static check.CheckThat.Condition.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// A made-up test suite of any size: classes, interfaces, enums and exceptions with fields and
+// methods of deep generic types, described through the public API the way lab
+// tests do. Every class draws its chain from its own seed, so it is described the same whatever
+// thread it runs on and whatever runs before it.
+final class SyntheticSuite {
+
+    // A class of the suite and what its chain is drawn from
+    static final class ClassSpec {
+
+        final String name;
+        final long seed;
+        final int members;
+
+        ClassSpec(String name, long seed, int members) {
+            this.name = name;
+            this.seed = seed;
+            this.members = members;
+        }
+    }
+
+    private static final String[] SIMPLE_TYPES = {"String", "Integer", "Double", "Long", "Character", "Boolean"};
+    private static final String[] PRIMITIVE_TYPES = {"int", "long", "double", "boolean", "char"};
+    private static final Condition[] VISIBILITIES = {VISIBLE_TO_ALL, VISIBLE_TO_PACKAGE, VISIBLE_TO_SUBCLASSES, VISIBLE_TO_NONE};
+
+    private SyntheticSuite() {
+    }
+
+    // count classes in the package with between maxMembers / 2 and maxMembers members each
+    static List<ClassSpec> classes(long seed, String packageName, int count, int maxMembers) {
+        Random random = new Random(seed);
+        List<ClassSpec> classes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int members = maxMembers / 2 + random.nextInt(maxMembers / 2 + 1);
+            classes.add(new ClassSpec(packageName + ".Type" + i, random.nextLong(), members));
+        }
+        return classes;
+    }
+
+    static void describe(ClassSpec spec) {
+        Random random = new Random(spec.seed);
+        int kind = random.nextInt(10);
+        if (kind == 0) {
+            describeInterface(spec, random);
+        } else if (kind == 1) {
+            theEnum(spec.name).hasEnumElements("FIRST", "SECOND", "THIRD");
+            it.thatIs(VISIBLE_TO_ALL);
+            describeMembers(spec, random);
+        } else if (kind == 2) {
+            theCheckedException(spec.name).thatIs(VISIBLE_TO_ALL);
+            it.hasConstructor(withParams("message: String")).thatIs(VISIBLE_TO_ALL).that(theParent("message"));
+            describeMembers(spec, random);
+        } else {
+            theClass(spec.name, withInterface("java.io.Serializable"))
+                    .thatIs(FULLY_IMPLEMENTED, INSTANCE_LEVEL, VISIBLE_TO_ALL);
+            it.hasConstructor(withNoParams()).thatIs(VISIBLE_TO_ALL);
+            it.hasConstructor(withParams("name: String", "size: int")).thatIs(visibility(random));
+            describeMembers(spec, random);
+            it.has(TEXTUAL_REPRESENTATION).thatHas(EQUALITY_CHECK, NATURAL_ORDERING);
+        }
+    }
+
+    private static void describeInterface(ClassSpec spec, Random random) {
+        theInterface(spec.name).thatIs(VISIBLE_TO_ALL);
+        for (int i = 0; i < spec.members; i++) {
+            it.hasMethod("operation" + i, parameters(random)).thatIs(NOT_IMPLEMENTED, VISIBLE_TO_ALL)
+                    .thatReturns(type(random, 3, true));
+        }
+    }
+
+    private static void describeMembers(ClassSpec spec, Random random) {
+        for (int i = 0; i < spec.members; i++) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    it.hasField("value" + i + ": " + type(random, 3, true))
+                            .thatIs(INSTANCE_LEVEL, MODIFIABLE, VISIBLE_TO_NONE).thatHas(GETTER, SETTER);
+                    break;
+                case 1:
+                    it.hasField("LIMIT" + i + ": int").thatIs(USABLE_WITHOUT_INSTANCE, NOT_MODIFIABLE, VISIBLE_TO_ALL)
+                            .thatHasValue(random.nextInt(1000));
+                    break;
+                case 2:
+                    it.hasMethod("compute" + i, parameters(random)).thatIs(INSTANCE_LEVEL, visibility(random))
+                            .thatReturns(type(random, 3, true));
+                    break;
+                case 3:
+                    it.hasMethod("load" + i, parameters(random)).thatIs(VISIBLE_TO_ALL).thatReturnsNothing()
+                            .thatCanRaise("java.io.IOException", "IllegalStateException");
+                    break;
+                default:
+                    it.hasMethod("<T> convert" + i, withParams("value: T", "List of T"))
+                            .thatIs(USABLE_WITHOUT_INSTANCE, VISIBLE_TO_ALL).thatReturns("<T> T");
+                    break;
+            }
+        }
+    }
+
+    // Up to four parameters, some named, the last one possibly a vararg
+    private static String parameters(Random random) {
+        int count = random.nextInt(5);
+        if (count == 0) {
+            return withNoParams();
+        }
+        String[] parameters = new String[count];
+        for (int i = 0; i < count; i++) {
+            String type = type(random, 2, true);
+            parameters[i] = random.nextBoolean() ? "arg" + i + ": " + type : type;
+        }
+        if (random.nextInt(4) == 0) {
+            parameters[count - 1] = "vararg of " + type(random, 0, true);
+        }
+        return withParams(parameters);
+    }
+
+    // A type nested up to depth levels deep, "HashMap of String to List of Set of Integer"
+    private static String type(Random random, int depth, boolean primitive) {
+        int pick = random.nextInt(depth == 0 ? 2 : 6);
+        switch (pick) {
+            case 0:
+                return primitive ? PRIMITIVE_TYPES[random.nextInt(PRIMITIVE_TYPES.length)] : SIMPLE_TYPES[random.nextInt(SIMPLE_TYPES.length)];
+            case 1:
+                return SIMPLE_TYPES[random.nextInt(SIMPLE_TYPES.length)];
+            case 2:
+                return "List of " + type(random, depth - 1, false);
+            case 3:
+                return "Set of " + type(random, depth - 1, false);
+            case 4:
+                return "HashMap of " + SIMPLE_TYPES[random.nextInt(SIMPLE_TYPES.length)] + " to " + type(random, depth - 1, false);
+            default:
+                return "array of " + type(random, depth - 1, primitive);
+        }
+    }
+
+    private static Condition visibility(Random random) {
+        return VISIBILITIES[random.nextInt(VISIBILITIES.length)];
+    }
+}
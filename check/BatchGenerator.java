@@ -0,0 +1,362 @@
+package check;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Generates the classes of a whole test suite in one JVM, without the JUnit runner.
+// Usage: java -cp checkthat.jar check.BatchGenerator [--threads N] [--verify] [--no-cache] [--merge] [--watch] [--sources DIR] <test classpath>
+// The test classpath has to contain the compiled tests and JUnit. With --watch the generator keeps
+// running and regenerates the classes of changed tests, see Watcher. With --verify the generated
+// classes are compiled together with the test sources, if given, and the problems are reported.
+// Test classes whose bytecode and generated files did not change since the last run are skipped,
+// unless --no-cache is given, see GenerationCache. With --merge existing classes are completed
+// instead of reported, see SourceMerger.
+public class BatchGenerator {
+
+    private static final String TEST = "org.junit.jupiter.api.Test";
+    private static final String BEFORE_ALL = "org.junit.jupiter.api.BeforeAll";
+    private static final String AFTER_ALL = "org.junit.jupiter.api.AfterAll";
+    private static final String BEFORE_EACH = "org.junit.jupiter.api.BeforeEach";
+    private static final String AFTER_EACH = "org.junit.jupiter.api.AfterEach";
+    private static final String DISABLED = "org.junit.jupiter.api.Disabled";
+    private static final String DISABLED_IF = "org.junit.jupiter.api.condition.DisabledIf";
+
+    // Structural tests refer to CheckThat, which shows up in their constant pool
+    private static final byte[] CHECKTHAT_REFERENCE = "check/CheckThat".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        GeneratorOptions options = GeneratorOptions.parse(args, Set.of("--sources"), Set.of("--watch"));
+        if (options.arguments.isEmpty()) {
+            System.err.println("Usage: java -cp checkthat.jar check.BatchGenerator [--threads N] [--verify] [--no-cache] [--merge] [--watch] [--sources DIR] <test classpath>");
+            System.exit(2);
+        }
+        String classpath = options.arguments.get(options.arguments.size() - 1);
+        Path sources = (options.value("--sources") != null) ? Paths.get(options.value("--sources")) : null;
+
+        List<Path> entries = new ArrayList<>();
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                entries.add(Paths.get(entry));
+            }
+        }
+
+        GenerationCache cache = options.apply();
+        if (options.isSet("--watch")) {
+            new Watcher(entries, sources, options.threads, options.verify, cache).run();
+            return;
+        }
+        long start = System.nanoTime();
+        List<String> testClasses = discover(entries);
+        Map<String, byte[]> inputs = new HashMap<>();
+        List<Result> results;
+        long renderStart;
+        try (URLClassLoader loader = new URLClassLoader(toUrls(entries), BatchGenerator.class.getClassLoader())) {
+            results = run(outdated(testClasses, loader, cache, inputs), loader, options.threads);
+            renderStart = System.nanoTime();
+            flush(loader);
+        }
+        record(results, cache, inputs);
+        long end = System.nanoTime();
+
+        for (Result result : results) {
+            System.out.println(result);
+        }
+        System.out.printf("%d test classes in %.1f ms, writing took %.1f ms%n",
+                results.size(), millis(end - start), millis(end - renderStart));
+        if (results.size() < testClasses.size()) {
+            System.out.println((testClasses.size() - results.size()) + " unchanged test classes skipped");
+        }
+        System.out.println(CheckThat.typeCacheStatistics());
+        if (options.verify) {
+            verify(entries, sources);
+        }
+    }
+
+    // Writes the generated classes while the classes of the tests can still be loaded, so that the
+    // classes they refer to are not taken for missing ones
+    static void flush(ClassLoader loader) {
+        DependencyResolver.setClassLoader(loader);
+        try {
+            CheckThat.flushPendingWrites();
+        } finally {
+            DependencyResolver.setClassLoader(null);
+        }
+    }
+
+    // Compiles the generated classes, with the tests if their sources are known
+    static void verify(List<Path> entries, Path sources) throws IOException {
+        List<Path> testSources = new ArrayList<>();
+        if (sources != null) {
+            try (Stream<Path> files = Files.walk(sources)) {
+                files.filter(f -> f.toString().endsWith(".java")).sorted().forEach(testSources::add);
+            }
+        }
+        String classpath = entries.stream().map(Path::toString).collect(Collectors.joining(File.pathSeparator))
+                + File.pathSeparator + System.getProperty("java.class.path");
+        CheckThat.verifyGeneratedSources(testSources, classpath);
+    }
+
+    // The test classes that have to run, the others are up to date in the cache.
+    // The bytecode of every test class is collected in inputs, to be recorded once it ran.
+    static List<String> outdated(List<String> classNames, ClassLoader loader, GenerationCache cache, Map<String, byte[]> inputs)
+            throws IOException {
+        if (cache == null) {
+            return classNames;
+        }
+        List<String> outdated = new ArrayList<>();
+        for (String className : classNames) {
+            byte[] input = bytecodeOf(className, loader);
+            inputs.put(className, input);
+            if (!cache.reuse(className, input)) {
+                outdated.add(className);
+            }
+        }
+        return outdated;
+    }
+
+    // Records what the test classes generated, after the pending writes are flushed
+    static void record(List<Result> results, GenerationCache cache, Map<String, byte[]> inputs) throws IOException {
+        if (cache == null) {
+            return;
+        }
+        for (Result result : results) {
+            cache.record(result, inputs.get(result.className));
+        }
+        cache.save();
+    }
+
+    // The bytecode of the test class and of its superclasses, which may declare tests too,
+    // or null if it cannot be loaded
+    private static byte[] bytecodeOf(String className, ClassLoader loader) throws IOException {
+        ByteArrayOutputStream bytecode = new ByteArrayOutputStream();
+        try {
+            for (Class<?> c = Class.forName(className, false, loader); c != null && c.getClassLoader() == loader; c = c.getSuperclass()) {
+                try (InputStream in = loader.getResourceAsStream(c.getName().replace('.', '/') + ".class")) {
+                    if (in == null) {
+                        return null;
+                    }
+                    in.transferTo(bytecode);
+                }
+            }
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+        return bytecode.toByteArray();
+    }
+
+    public static List<Result> run(List<String> classNames, ClassLoader loader, int threads)
+            throws InterruptedException, ExecutionException {
+        return GeneratorOptions.runParallel(classNames, threads, className -> runTestClass(className, loader));
+    }
+
+    public static class Result {
+
+        public final String className;
+        public int tests = 0;
+        public int skipped = 0;
+        public final List<String> failures = new ArrayList<>();
+        public Set<Path> files = Set.of();
+        public long nanos;
+
+        Result(String className) {
+            this.className = className;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%9.1f ms  %s (%d tests", millis(nanos), className, tests));
+            if (skipped > 0) {
+                sb.append(", ").append(skipped).append(" skipped");
+            }
+            if (!failures.isEmpty()) {
+                sb.append(", ").append(failures.size()).append(" failed");
+            }
+            sb.append(")");
+            for (String failure : failures) {
+                sb.append("\n").append(CheckThat.INDENTATION).append(failure);
+            }
+            return sb.toString();
+        }
+    }
+
+    static Result runTestClass(String className, ClassLoader loader) {
+        Result result = new Result(className);
+        long start = System.nanoTime();
+        try {
+            Class<?> testClass = Class.forName(className, true, loader);
+            List<Method> methods = methodsOf(testClass);
+
+            if (invokeAll(methods, BEFORE_ALL, null, result, "@BeforeAll")) {
+                for (Method test : methods) {
+                    if (!isAnnotated(test, TEST)) {
+                        continue;
+                    }
+                    result.tests++;
+                    if (isAnnotated(test, DISABLED) || isDisabledByCondition(test, testClass)) {
+                        result.skipped++;
+                        continue;
+                    }
+                    Object instance = testClass.getDeclaredConstructor().newInstance();
+                    if (invokeAll(methods, BEFORE_EACH, instance, result, test.getName())) {
+                        invoke(test, instance, result, test.getName());
+                    }
+                    invokeAll(methods, AFTER_EACH, instance, result, test.getName());
+                }
+            }
+            invokeAll(methods, AFTER_ALL, null, result, "@AfterAll");
+        } catch (ReflectiveOperationException | LinkageError e) {
+            result.failures.add("cannot run: " + e);
+        } finally {
+            result.files = CheckThat.endTestClass();
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    // Superclass methods come first, each class in the order JUnit uses by default
+    private static List<Method> methodsOf(Class<?> testClass) {
+        List<Method> methods = new ArrayList<>();
+        if (testClass.getSuperclass() != null && testClass.getSuperclass() != Object.class) {
+            methods.addAll(methodsOf(testClass.getSuperclass()));
+        }
+        Stream.of(testClass.getDeclaredMethods())
+                .filter(m -> !m.isSynthetic())
+                .sorted(Comparator.comparingInt((Method m) -> m.getName().hashCode()).thenComparing(Method::toString))
+                .forEach(methods::add);
+        return methods;
+    }
+
+    private static boolean invokeAll(List<Method> methods, String annotation, Object instance, Result result, String context) {
+        for (Method method : methods) {
+            if (isAnnotated(method, annotation) && !invoke(method, instance, result, context)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean invoke(Method method, Object instance, Result result, String context) {
+        try {
+            method.setAccessible(true);
+            method.invoke(Modifier.isStatic(method.getModifiers()) ? null : instance);
+            return true;
+        } catch (InvocationTargetException e) {
+            result.failures.add(context + ": " + e.getCause());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            result.failures.add(context + ": " + e);
+        }
+        return false;
+    }
+
+    private static boolean isAnnotated(Method method, String annotationName) {
+        return Stream.of(method.getAnnotations()).anyMatch(a -> a.annotationType().getName().equals(annotationName));
+    }
+
+    // Evaluates @DisabledIf("Class#method") or @DisabledIf("method") like JUnit does
+    private static boolean isDisabledByCondition(Method test, Class<?> testClass) throws ReflectiveOperationException {
+        for (java.lang.annotation.Annotation annotation : test.getAnnotations()) {
+            if (!annotation.annotationType().getName().equals(DISABLED_IF)) {
+                continue;
+            }
+            String condition = (String) annotation.annotationType().getMethod("value").invoke(annotation);
+            Class<?> owner = testClass;
+            String methodName = condition;
+            int separator = condition.indexOf('#');
+            if (separator >= 0) {
+                owner = Class.forName(condition.substring(0, separator), true, testClass.getClassLoader());
+                methodName = condition.substring(separator + 1);
+            }
+            Method conditionMethod = owner.getDeclaredMethod(methodName);
+            conditionMethod.setAccessible(true);
+            Object instance = Modifier.isStatic(conditionMethod.getModifiers()) ? null : owner.getDeclaredConstructor().newInstance();
+            if ((Boolean) conditionMethod.invoke(instance)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static List<String> discover(List<Path> entries) throws IOException {
+        List<String> classNames = new ArrayList<>();
+        for (Path entry : entries) {
+            if (Files.isDirectory(entry)) {
+                try (Stream<Path> files = Files.walk(entry)) {
+                    for (Path file : files.filter(f -> f.toString().endsWith(".class")).sorted().collect(Collectors.toList())) {
+                        String name = entry.relativize(file).toString().replace(File.separatorChar, '/');
+                        addIfStructuralTest(classNames, name, Files.readAllBytes(file));
+                    }
+                }
+            } else if (entry.toString().endsWith(".jar")) {
+                try (JarFile jar = new JarFile(entry.toFile())) {
+                    Enumeration<JarEntry> jarEntries = jar.entries();
+                    while (jarEntries.hasMoreElements()) {
+                        JarEntry jarEntry = jarEntries.nextElement();
+                        if (jarEntry.getName().endsWith(".class")) {
+                            try (InputStream in = jar.getInputStream(jarEntry)) {
+                                addIfStructuralTest(classNames, jarEntry.getName(), in.readAllBytes());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return classNames;
+    }
+
+    static void addIfStructuralTest(Collection<String> classNames, String fileName, byte[] bytecode) {
+        if (fileName.startsWith("check/") || fileName.contains("$") || !contains(bytecode, CHECKTHAT_REFERENCE)) {
+            return;
+        }
+        classNames.add(fileName.substring(0, fileName.length() - ".class".length()).replace('/', '.'));
+    }
+
+    private static boolean contains(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    static URL[] toUrls(List<Path> entries) throws IOException {
+        URL[] urls = new URL[entries.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = entries.get(i).toUri().toURL();
+        }
+        return urls;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -1,33 +1,137 @@
 package check;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class CheckThat {
 
-    public static CheckThat it;
+    // The most recently started model of any thread, the model of the calling thread is
+    // kept in its Generation
+    public static volatile CheckThat it;
 
     // Needed for @DisabledIf(notApplicable) annotation;
     public static final String notApplicable = "check.CheckThat#theTypeDoesNotExist";
 
     public static boolean theTypeDoesNotExist() {
-        return it == null;
+        return Generation.get().model == null;
     }
 
+    // Generation state of one thread, so that test classes can be run in parallel
+    static class Generation {
+
+        private static final ThreadLocal<Generation> current = ThreadLocal.withInitial(Generation::new);
+
+        private CheckThat model;
+        private int variableCounter = 1;
+        // Imports recorded while parsing descriptors, until the model they belong to claims them
+        private final ImportTable unclaimedImports = new ImportTable();
+        // Where the calls come from, when they are not made by the code on the stack (SourceExtractor)
+        private String callSite;
+        // Files of the classes the current test class generated, see endTestClass()
+        private final Set<Path> files = new TreeSet<>();
+
+        static Generation get() {
+            return current.get();
+        }
+    }
+
+    // With -Dcheckthat.deferWrites=true a class is rendered and written once,
+    // when the next class is started or the JVM exits, instead of on every call
+    private static volatile boolean deferWrites = Boolean.getBoolean("checkthat.deferWrites");
+    private static final Set<CheckThat> pendingWrites = Collections.synchronizedSet(new LinkedHashSet<>());
+
+    // With -Dcheckthat.dependencies=true every class is kept until flushPendingWrites(), when the
+    // classes that refer to each other are resolved together, see DependencyResolver
+    private static volatile boolean dependencies = Boolean.getBoolean("checkthat.dependencies");
+
+    // With -Dcheckthat.verify=true the generated classes are compiled at exit, and the compiler
+    // errors are reported together with the CheckThat calls that generated the erroneous lines
+    private static volatile boolean verify = Boolean.getBoolean("checkthat.verify");
+    // Cleared by setVerify(): BatchGenerator and SourceExtractor verify together with the tests themselves
+    private static volatile boolean verifyAtExit = verify;
+    private static final Map<Path, CheckThat> generatedModels = new ConcurrentHashMap<>();
+    private static final StackWalker stackWalker = StackWalker.getInstance();
+
+    private static final GeneratorMetrics metrics = GeneratorMetrics.metrics;
+    // Models whose session event is still open, so that they can be committed at exit
+    private static final Set<CheckThat> openSessions = ConcurrentHashMap.newKeySet();
+
+    private static final OutputSink output = OutputSink.create(System.getProperty("checkthat.output", "direct"));
+
+    // Digest of the content last written to each path, so that unchanged files are not touched
+    private static final Map<Path, byte[]> writtenDigests = new ConcurrentHashMap<>();
+    // Files generated by this JVM that may be generated once more, see allowRegeneration()
+    private static final Set<Path> regenerable = ConcurrentHashMap.newKeySet();
+
+    // With -Dcheckthat.merge=true an existing class is not an error: the members it lacks are
+    // merged into it instead, see SourceMerger
+    private static volatile boolean merge = Boolean.getBoolean("checkthat.merge");
+
+    // -Dcheckthat.reportWrites=true prints how many writes were performed and skipped
+    private static final boolean reportWrites = Boolean.getBoolean("checkthat.reportWrites");
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(CheckThat::onExit));
+    }
+
+    private static void onExit() {
+        try {
+            flushPendingWrites();
+        } catch (RuntimeException e) {
+            System.err.println("CheckThat: " + e.getMessage());
+        }
+        for (CheckThat model : openSessions) {
+            model.endSession();
+        }
+        if (reportWrites) {
+            System.out.println(writeStatistics());
+        }
+        GeneratorMetrics.report();
+        if (verify && verifyAtExit) {
+            verifyGeneratedSources(List.of(), System.getProperty("java.class.path"));
+        }
+    }
+
+    public static String typeCacheStatistics() {
+        return Variable.typeCache.statistics();
+    }
+
+    // The generated files by path, with -Dcheckthat.output=memory, zip:<file> or jar:<file>
+    public static Map<Path, byte[]> generatedFiles() {
+        if (!(output instanceof OutputSink.MemorySink)) {
+            throw new IllegalStateException("Generated files are only kept in memory with -Dcheckthat.output=memory, zip:<file> or jar:<file>");
+        }
+        flushPendingWrites();
+        return Collections.unmodifiableMap(((OutputSink.MemorySink) output).contents());
+    }
+
+    public static String writeStatistics() {
+        return "CheckThat: " + metrics.getWrites() + " file writes, " + metrics.getSkippedWrites() + " unchanged writes skipped";
+    }
+
+    private final Generation owner = Generation.get();
+    private final String callSite = verify ? callSite() : null;
     private String[] packagePath;
-    private static Set<String> imports = new HashSet<>();
+    private ImportTable imports = new ImportTable();
     private Modifiers modifiers = new Modifiers();
     private String classType;  // required: "class", "enum", "interface"
     private String className;
@@ -44,15 +148,65 @@ public class CheckThat {
     private boolean hasOrdering = false;
 
     private Member inspectedMember;
+    // hashCode(), equals() and compareTo(), built again only when the fields change
+    private List<Method> derivedMethods;
+    private int lastRenderSize = 0;
+    private GeneratorEvents.SessionEvent session;
+    private List<Member> renderedMembers = List.of();
+    // The source of the class as it existed before, when merging into it
+    private SourceMerger.Source mergeTarget;
 
     public CheckThat(String name, String type) {
         String[] nameParts = name.split("\\.");
-        if (new File(String.join(File.separator, nameParts) + ".java").exists()) {
-            throw new RuntimeException("File already exists!");
-        }
         this.packagePath = Arrays.copyOf(nameParts, nameParts.length - 1);
         this.className = nameParts[nameParts.length - 1];
         this.classType = type;
+        boolean exists;
+        try {
+            Path targetPath = targetPath();
+            boolean existing = output.exists(targetPath);
+            if (existing && merge && !isPendingWrite()) {
+                regenerable.remove(targetPath);
+                mergeTarget = SourceMerger.parse(new String(output.read(targetPath), StandardCharsets.UTF_8));
+            }
+            exists = (existing && mergeTarget == null && !regenerable.remove(targetPath)) || isPendingWrite();
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("File already exists and cannot be merged: " + e.getMessage());
+        }
+        if (exists) {
+            throw new RuntimeException("File already exists!");
+        }
+        owner.files.add(targetPath());
+        claimImports();
+    }
+
+    private boolean isPendingWrite() {
+        synchronized (pendingWrites) {
+            for (CheckThat model : pendingWrites) {
+                if (model.className.equals(className) && Arrays.equals(model.packagePath, packagePath)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // `it` is shared by all threads, so under parallel execution a call on it may reach the
+    // model of another thread. Every fluent call is counted and routed here to the model of the
+    // calling thread, a thread that did not start a model must not change the one of another.
+    private CheckThat forCurrentThread(GeneratorMetrics.Call call) {
+        metrics.call(call);
+        Generation generation = Generation.get();
+        if (generation == owner) {
+            return this;
+        }
+        if (generation.model == null) {
+            throw new IllegalStateException("CheckThat: " + qualifiedName() + " was started on another thread, "
+                    + "start a class on this thread before describing it");
+        }
+        return generation.model;
     }
 
     public CheckThat(String name, String type, String parentInfo) {
@@ -79,18 +233,20 @@ public class CheckThat {
     }
 
     public CheckThat withTypeParameters(String... params) {
+        return forCurrentThread(GeneratorMetrics.Call.WITH_TYPE_PARAMETERS).setTypeParameters(params);
+    }
+
+    private CheckThat setTypeParameters(String... params) {
         this.typeParameter = String.join(", ", params);
         return this;
     }
 
     public static CheckThat theClass(String name) {
-        it = new CheckThat(name, "class");
-        return it;
+        return begin(new CheckThat(name, "class"));
     }
 
     public static CheckThat theClass(String name, String parentinfo) {
-        it = new CheckThat(name, "class", parentinfo);
-        return it;
+        return begin(new CheckThat(name, "class", parentinfo));
     }
 
     public static CheckThat theClassWithParent(String name, String parent) {
@@ -98,23 +254,126 @@ public class CheckThat {
     }
 
     public static CheckThat theEnum(String name) {
-        it = new CheckThat(name, "enum");
-        return it;
+        return begin(new CheckThat(name, "enum"));
     }
 
     public static CheckThat theInterface(String name) {
-        it = new CheckThat(name, "interface");
-        return it;
+        return begin(new CheckThat(name, "interface"));
     }
 
     public static CheckThat theCheckedException(String name) {
-        it = new CheckThat(name, "class", "extends Exception");
-        return it;
+        return begin(new CheckThat(name, "class", "extends Exception"));
     }
 
     public static CheckThat theUncheckedException(String name) {
-        it = new CheckThat(name, "class", "extends RuntimeException");
-        return it;
+        return begin(new CheckThat(name, "class", "extends RuntimeException"));
+    }
+
+    private static CheckThat begin(CheckThat model) {
+        Generation generation = Generation.get();
+        // The previous class of this thread is complete once the next one is started
+        CheckThat previous = generation.model;
+        if (previous != null && !dependencies && pendingWrites.remove(previous)) {
+            previous.flush();
+        }
+        if (previous != null) {
+            previous.endSession();
+        }
+        generation.model = model;
+        it = model;
+        metrics.modelCreated(model.classType);
+
+        GeneratorEvents.SessionEvent session = new GeneratorEvents.SessionEvent();
+        if (session.isEnabled()) {
+            session.begin();
+            model.session = session;
+            openSessions.add(model);
+        }
+        return model;
+    }
+
+    private void endSession() {
+        GeneratorEvents.SessionEvent session = this.session;
+        if (session == null || !openSessions.remove(this)) {
+            return;
+        }
+        this.session = null;
+        session.end();
+        if (session.shouldCommit()) {
+            session.className = qualifiedName();
+            session.members = memberCount();
+            session.bytes = lastRenderSize;
+            session.commit();
+        }
+    }
+
+    static void setDeferWrites(boolean deferred) {
+        deferWrites = deferred;
+    }
+
+    static void setResolveDependencies(boolean resolve) {
+        dependencies = resolve;
+    }
+
+    static void setVerify(boolean verifyGenerated) {
+        verify = verifyGenerated;
+        verifyAtExit = false;
+    }
+
+    static void setMerge(boolean mergeExisting) {
+        merge = mergeExisting;
+    }
+
+    // The options that change what is generated from the same calls
+    static String outputOptions() {
+        return "merge=" + merge + " dependencies=" + dependencies;
+    }
+
+    static void setCallSite(String callSite) {
+        Generation.get().callSite = callSite;
+    }
+
+    // Lets every class generated so far by this JVM be generated once more, when the tests that
+    // generated it are run again
+    static void allowRegeneration() {
+        regenerable.clear();
+        regenerable.addAll(writtenDigests.keySet());
+    }
+
+    // Called when a test class is done, so that the next test class on this thread starts without a model.
+    // Returns the files of the classes the test class generated.
+    static Set<Path> endTestClass() {
+        Generation generation = Generation.get();
+        if (generation.model != null) {
+            generation.model.endSession();
+        }
+        generation.model = null;
+        Set<Path> files = new TreeSet<>(generation.files);
+        generation.files.clear();
+        return files;
+    }
+
+    // The cache of the earlier runs, kept in the output. Memory output does not outlive the JVM,
+    // so there is nothing to cache.
+    static GenerationCache loadCache() throws IOException {
+        return output.isPersistent() ? GenerationCache.load(output) : null;
+    }
+
+    // The digest of the file as last written by this JVM, or as it is found in the output
+    static byte[] contentDigest(Path path) throws IOException {
+        byte[] digest = writtenDigests.get(path);
+        if (digest == null) {
+            byte[] existing = output.read(path);
+            digest = (existing != null) ? digest(existing) : null;
+        }
+        return digest;
+    }
+
+    // Takes over a file of an earlier run as if this JVM had generated it, without running its test
+    static void reuseGeneratedFile(Path path, byte[] digest) {
+        writtenDigests.put(path, digest);
+        String name = path.toString();
+        DependencyResolver.generated(name.substring(0, name.length() - ".java".length()).replace(File.separatorChar, '.'));
     }
 
     public static enum Condition {
@@ -147,10 +406,12 @@ public class CheckThat {
 
         public final Type type;
         public final String modifier;
+        final int flag;
 
         private Condition(Type type, String modifier) {
             this.type = type;
             this.modifier = modifier;
+            this.flag = Modifiers.flagOf(modifier);
         }
 
         private Condition(Type type) {
@@ -175,80 +436,103 @@ public class CheckThat {
         public String name;
         public String type;
 
-        private static int counter = 1;
+        private static final Set<String> primitives = Set.of("byte", "short", "int", "long", "float", "double", "char", "boolean");
 
-        private static final Set<String> possibleImports = Set.of(
-                "java.util.List",
-                "java.util.ArrayList",
-                "java.util.LinkedList",
-                "java.util.Map",
-                "java.util.HashMap",
-                "java.util.Set",
-                "java.util.HashSet",
-                "java.util.Random"
-        );
+        private static final TypeCache typeCache = new TypeCache(Integer.getInteger("checkthat.typeCacheSize", 4096));
 
         public static void resetCounter() {
-            counter = 1;
+            Generation.get().variableCounter = 1;
         }
 
         private boolean isPrimitive() {
-            Set<String> primitives = Set.of("byte", "short", "int", "long", "float", "double", "char", "boolean");
-            return primitives.contains(this.type);
+            return isPrimitive(this.type);
+        }
+
+        private static boolean isPrimitive(String type) {
+            return primitives.contains(type);
         }
 
         public Variable(String typedName) {
-            String[] parts = typedName.split(": ");
-            switch (parts.length) {
-                case 1:
-                    name = "var" + counter++;
-                    type = getTypeFromString(parts[0]);
-                    break;
-                case 2:
-                    name = parts[0];
-                    type = getTypeFromString(parts[1]);
-                    break;
-                default:
-                    throw new IllegalArgumentException("Invalid variable descriptor");
+            int separator = typedName.indexOf(": ");
+            if (separator < 0) {
+                name = "var" + Generation.get().variableCounter++;
+                type = parseType(typedName, 0);
+                return;
+            }
+            int extraSeparator = typedName.indexOf(": ", separator + 2);
+            if (extraSeparator >= 0) {
+                throw new IllegalArgumentException(
+                        "Invalid variable descriptor \"" + typedName + "\" at position " + extraSeparator + ": unexpected ': '");
             }
+            name = typedName.substring(0, separator);
+            type = parseType(typedName, separator + 2);
         }
 
-        private String getTypeFromString(String s) {
-            String[] parts;
-
-            if (!s.contains(" of ")) {
-                return importAndSimplify(s);
+        // The same descriptors are parsed many times in a suite, so parsed types are cached together
+        // with the imports they record
+        private static String parseType(String typedName, int start) {
+            long startTime = GeneratorMetrics.enabled ? System.nanoTime() : 0;
+            String descriptor = typedName.substring(start);
+            ParsedType parsed = typeCache.get(descriptor);
+            if (parsed == null) {
+                ImportTable recorded = new ImportTable();
+                TypeDescriptor type = TypeDescriptor.parse(typedName, start, recorded);
+                parsed = new ParsedType(type.toString(), recorded.toArray());
+                typeCache.put(descriptor, parsed);
+            }
+            ImportTable unclaimedImports = Generation.get().unclaimedImports;
+            for (String name : parsed.imports) {
+                unclaimedImports.add(name);
             }
+            if (GeneratorMetrics.enabled) {
+                metrics.parse.record(System.nanoTime() - startTime);
+            }
+            return parsed.type;
+        }
 
-            parts = s.split(" of ", 2);
-            parts[0] = importAndSimplify(parts[0]);
-            switch (parts[0]) {
-                case "array":
-                    return getTypeFromString(parts[1]) + "[]";
-                case "vararg":
-                    return getTypeFromString(parts[1]) + "...";
-                case "HashMap":
-                    parts = parts[1].split(" to ", 2);
-                    return "HashMap<" + getTypeFromString(parts[0]) + ", " + getTypeFromString(parts[1]) + ">";
-                default:
-                    return parts[0] + "<" + getTypeFromString(parts[1]) + ">";
+        private static class ParsedType {
+
+            final String type;
+            final String[] imports;
+
+            ParsedType(String type, String[] imports) {
+                this.type = type;
+                this.imports = imports;
             }
         }
 
-        private static String importAndSimplify(String type) {
-            if (type.contains(".")) {
-                imports.add(type);
-                String[] nameParts = type.split("\\.");
-                return nameParts[nameParts.length - 1];
+        // Bounded map of parsed descriptors, evicting the least recently used one when full
+        private static class TypeCache {
+
+            private final LinkedHashMap<String, ParsedType> entries;
+
+            TypeCache(int capacity) {
+                entries = new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, ParsedType> eldest) {
+                        return size() > capacity;
+                    }
+                };
             }
-            for (String className : possibleImports) {
-                String[] importParts = className.split("\\.");
-                if (type.equals(importParts[importParts.length - 1]) && !imports.contains(className)) {
-                    imports.add(className);
-                    break;
+
+            synchronized ParsedType get(String descriptor) {
+                ParsedType parsed = entries.get(descriptor);
+                if (parsed == null) {
+                    metrics.typeCacheMisses.increment();
+                } else {
+                    metrics.typeCacheHits.increment();
                 }
+                return parsed;
+            }
+
+            synchronized void put(String descriptor, ParsedType parsed) {
+                entries.put(descriptor, parsed);
+            }
+
+            synchronized String statistics() {
+                return "CheckThat: type cache " + metrics.getTypeCacheHits() + " hits, " + metrics.getTypeCacheMisses()
+                        + " misses, " + entries.size() + " entries";
             }
-            return type;
         }
 
         @Override
@@ -272,8 +556,14 @@ public class CheckThat {
     }
 
     public CheckThat hasField(String descriptor) {
+        return forCurrentThread(GeneratorMetrics.Call.HAS_FIELD).addField(descriptor);
+    }
+
+    private CheckThat addField(String descriptor) {
         Field field = new Field(descriptor);
+        claimImports();
         fields.add(field);
+        derivedMethods = null;
         inspectedMember = field;
         return this;
     }
@@ -308,7 +598,17 @@ public class CheckThat {
     }
 
     public CheckThat hasMethod(String name, String parameters) {
-        Method method = new Method(name, parameters);
+        return forCurrentThread(GeneratorMetrics.Call.HAS_METHOD).addMethod(name, parameters);
+    }
+
+    private CheckThat addMethod(String name, String parameters) {
+        // "<T> first"
+        int typeParametersEnd = typeParametersEnd(name);
+        Method method = new Method(name.substring(typeParametersEnd).trim(), parameters);
+        if (typeParametersEnd > 0) {
+            method.typeParameters = name.substring(1, typeParametersEnd - 1).trim();
+        }
+        claimImports();
         classMethods.add(method);
         inspectedMember = method;
         return this;
@@ -319,7 +619,12 @@ public class CheckThat {
     }
 
     public CheckThat hasConstructor(String parameters) {
+        return forCurrentThread(GeneratorMetrics.Call.HAS_CONSTRUCTOR).addConstructor(parameters);
+    }
+
+    private CheckThat addConstructor(String parameters) {
         Method constructor = new Method(className, parameters);
+        claimImports();
         constructors.add(constructor);
         inspectedMember = constructor;
         return this;
@@ -330,13 +635,27 @@ public class CheckThat {
     }
 
     public CheckThat hasEnumElements(String... elements) {
+        return forCurrentThread(GeneratorMetrics.Call.HAS_ENUM_ELEMENTS).setEnumElements(elements);
+    }
+
+    private CheckThat setEnumElements(String... elements) {
         enumElements = elements;
         writeToFile();
         return this;
     }
 
     public CheckThat thatReturns(String returnType) {
-        ((Method) inspectedMember).returnType = new Variable(returnType).type;
+        return forCurrentThread(GeneratorMetrics.Call.THAT_RETURNS).setReturnType(returnType);
+    }
+
+    private CheckThat setReturnType(String returnType) {
+        // "<T> T"
+        int typeParametersEnd = typeParametersEnd(returnType);
+        if (typeParametersEnd > 0) {
+            ((Method) inspectedMember).typeParameters = returnType.substring(1, typeParametersEnd - 1).trim();
+        }
+        ((Method) inspectedMember).returnType = new Variable(returnType.substring(typeParametersEnd).trim()).type;
+        inspectedMember.changed();
         writeToFile();
         return this;
     }
@@ -346,11 +665,21 @@ public class CheckThat {
     }
 
     public CheckThat thatCanRaise(String... exceptions) {
+        return forCurrentThread(GeneratorMetrics.Call.THAT_CAN_RAISE).setExceptions(exceptions);
+    }
+
+    private CheckThat setExceptions(String... exceptions) {
         ((Method) inspectedMember).exceptions = " throws " + String.join(", ", map(exceptions, e -> new Variable(e).type));
+        inspectedMember.changed();
+        claimImports();
         return this;
     }
 
     public CheckThat implementsMethod(String method) {
+        return forCurrentThread(GeneratorMetrics.Call.IMPLEMENTS_METHOD).addOverride(method);
+    }
+
+    private CheckThat addOverride(String method) {
         Method result = new Method(method, "", "// TODO: correct signature");
         result.annotations = "@Override";
         classMethods.add(result);
@@ -358,6 +687,10 @@ public class CheckThat {
     }
 
     public CheckThat has(Condition... conditions) {
+        return forCurrentThread(GeneratorMetrics.Call.HAS).addClassConditions(conditions);
+    }
+
+    private CheckThat addClassConditions(Condition... conditions) {
         inspectedMember = null;
         for (Condition condition : conditions) {
             switch (condition) {
@@ -368,9 +701,11 @@ public class CheckThat {
                     break;
                 case EQUALITY_CHECK:
                     hasEqualityCheck = true;
+                    derivedMethods = null;
                     break;
                 case NATURAL_ORDERING:
                     hasOrdering = true;
+                    derivedMethods = null;
                     String comparableInterface = "Comparable<" + className + ">";
                     if (parentInfo == null) {
                         parentInfo = "implements" + comparableInterface;
@@ -398,6 +733,10 @@ public class CheckThat {
     }
 
     public CheckThat thatHas(Condition... conditions) {
+        return forCurrentThread(GeneratorMetrics.Call.THAT_HAS).addMemberConditions(conditions);
+    }
+
+    private CheckThat addMemberConditions(Condition... conditions) {
         for (Condition condition : conditions) {
             switch (condition) {
                 case GETTER:
@@ -419,13 +758,16 @@ public class CheckThat {
     }
 
     public CheckThat thatHasValue(int value) {
-        ((Field) inspectedMember).initialValue = Integer.toString(value);
-        writeToFile();
-        return this;
+        return forCurrentThread(GeneratorMetrics.Call.THAT_HAS_VALUE).setInitialValue(Integer.toString(value));
     }
 
     public CheckThat thatHasValue(String value) {
-        ((Field) inspectedMember).initialValue = "\"" + value + "\"";
+        return forCurrentThread(GeneratorMetrics.Call.THAT_HAS_VALUE).setInitialValue("\"" + value + "\"");
+    }
+
+    private CheckThat setInitialValue(String literal) {
+        ((Field) inspectedMember).initialValue = literal;
+        inspectedMember.changed();
         writeToFile();
         return this;
     }
@@ -439,6 +781,10 @@ public class CheckThat {
     }
 
     public CheckThat thatCalls(String... methods) {
+        return forCurrentThread(GeneratorMetrics.Call.THAT_CALLS).addCalls(methods);
+    }
+
+    private CheckThat addCalls(String... methods) {
         ((Method) inspectedMember).addToBody("// TODO: call " + String.join(", ", methods));
         return this;
     }
@@ -460,6 +806,10 @@ public class CheckThat {
     }
 
     public CheckThat that(String... parameters) {
+        return forCurrentThread(GeneratorMetrics.Call.THAT).addNote(parameters);
+    }
+
+    private CheckThat addNote(String... parameters) {
         ((Method) inspectedMember).addToBody("// TODO: " + String.join(", ", parameters));
         return this;
     }
@@ -471,23 +821,171 @@ public class CheckThat {
 
     /* PROPERTIES OF CLASSES AND MEMBERS */
 
-    class Member {
+    private void claimImports() {
+        ImportTable unclaimedImports = Generation.get().unclaimedImports;
+        imports.addAll(unclaimedImports);
+        unclaimedImports.clear();
+    }
+
+    // Sorted set of imports, kept in a plain array since a class only has a few
+    static class ImportTable implements Iterable<String> {
+
+        private String[] names = new String[8];
+        private int size = 0;
+
+        public void add(String name) {
+            int index = Arrays.binarySearch(names, 0, size, name);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+            }
+            System.arraycopy(names, index, names, index + 1, size - index);
+            names[index] = name;
+            size++;
+        }
+
+        public void addAll(ImportTable other) {
+            for (String name : other) {
+                add(name);
+            }
+        }
+
+        public void clear() {
+            Arrays.fill(names, 0, size, null);
+            size = 0;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public String[] toArray() {
+            return Arrays.copyOf(names, size);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return Arrays.asList(names).subList(0, size).iterator();
+        }
+    }
+
+    abstract class Member {
 
         Modifiers modifiers = new Modifiers();
+        String callSite = verify ? callSite() : null;
+        // The lines of the member in the last rendering
+        int firstLine;
+        int lastLine;
+        // The text of the member since its last change, rendered at the outermost level
+        private String rendered;
+
+        abstract void emit(Emitter out) throws IOException;
+
+        // Called on every change of the member, so that it is rendered again
+        void changed() {
+            rendered = null;
+        }
+
+        // Emits the member, rendering it only if it changed since the last time.
+        // The emitter indents the lines of the text like those of a fresh rendering.
+        void emitCached(Emitter out) throws IOException {
+            if (rendered == null) {
+                rendered = toString();
+            }
+            out.append(rendered);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            try {
+                Emitter out = new Emitter(sb);
+                emit(out);
+                out.finish();
+            } catch (IOException e) {
+                throw new RuntimeException(e.toString());
+            }
+            return sb.toString();
+        }
     }
 
-    class Modifiers {
+    // The modifiers of a class or member as flags, one per keyword, in the order they are written
+    static class Modifiers {
+
+        static final int PUBLIC = 1;
+        static final int PROTECTED = 1 << 1;
+        static final int PRIVATE = 1 << 2;
+        static final int ABSTRACT = 1 << 3;
+        static final int STATIC = 1 << 4;
+        static final int FINAL = 1 << 5;
+
+        private static final String[] KEYWORDS = {"public", "protected", "private", "abstract", "static", "final"};
+        // The text of every combination of flags, so that rendering never allocates
+        private static final String[] RENDERED = new String[1 << KEYWORDS.length];
+
+        static {
+            for (int flags = 0; flags < RENDERED.length; flags++) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < KEYWORDS.length; i++) {
+                    if ((flags & (1 << i)) != 0) {
+                        sb.append(sb.length() == 0 ? "" : " ").append(KEYWORDS[i]);
+                    }
+                }
+                RENDERED[flags] = sb.toString();
+            }
+        }
+
+        private int flags = 0;
 
-        public String visibility;
-        public String abstractness;
-        public String staticness;
-        public String modifiability;
+        // The flag of a modifier keyword, 0 for none
+        static int flagOf(String keyword) {
+            for (int i = 0; keyword != null && i < KEYWORDS.length; i++) {
+                if (KEYWORDS[i].equals(keyword)) {
+                    return 1 << i;
+                }
+            }
+            return 0;
+        }
+
+        // The flags that exclude each other, since they stand for the same property
+        private static int flagsOf(Condition.Type type) {
+            switch (type) {
+                case VISIBILITY:
+                    return PUBLIC | PROTECTED | PRIVATE;
+                case ABSTRACTNESS:
+                    return ABSTRACT;
+                case STATICNESS:
+                    return STATIC;
+                case MODIFIABILITY:
+                    return FINAL;
+                default:
+                    throw new IllegalArgumentException();
+            }
+        }
+
+        // Applies the conditions in order, unless the result is an illegal combination: abstract
+        // members have to be implemented, which a final, static or private one cannot be
+        void set(Condition... conditions) {
+            int updated = flags;
+            for (Condition condition : conditions) {
+                updated = (updated & ~flagsOf(condition.type)) | condition.flag;
+            }
+            if ((updated & ABSTRACT) != 0 && (updated & (FINAL | STATIC | PRIVATE)) != 0) {
+                throw new IllegalArgumentException("Illegal combination of modifiers: " + RENDERED[updated]);
+            }
+            flags = updated;
+        }
+
+        boolean isAbstract() {
+            return (flags & ABSTRACT) != 0;
+        }
 
         @Override
         public String toString() {
-            return Stream.of(visibility, abstractness, staticness, modifiability)
-                    .filter(s -> s != null)
-                    .collect(Collectors.joining(" "));
+            return RENDERED[flags];
         }
     }
 
@@ -503,18 +1001,16 @@ public class CheckThat {
 
         public Method getterMethod() {
             String name = "get" + capitalize(variable.name);
-            String body = "return " + variable.name + ";";
-            Method getter = new Method(name, "", body);
-            getter.modifiers.visibility = "public";
+            Method getter = new Method(name, "", Templates.GETTER.fill(variable.name));
+            getter.modifiers.set(Condition.VISIBLE_TO_ALL);
             getter.returnType = variable.type;
             return getter;
         }
 
         public Method setterMethod() {
             String name = "set" + capitalize(variable.name);
-            String body = "this." + variable.name + " = " + variable.name + ";";
-            Method setter = new Method(name, variable.toString(), body);
-            setter.modifiers.visibility = "public";
+            Method setter = new Method(name, variable.toString(), Templates.SETTER.fill(variable.name));
+            setter.modifiers.set(Condition.VISIBLE_TO_ALL);
             setter.returnType = "void";
             return setter;
         }
@@ -524,20 +1020,19 @@ public class CheckThat {
         }
 
         @Override
-        public String toString() {
-            StringBuilder sb = new StringBuilder();
-            sb.append(modifiers.toString()).append(" ").append(variable.toString());
+        void emit(Emitter out) throws IOException {
+            out.append(modifiers.toString()).append(' ').append(variable.type).append(' ').append(variable.name);
             if (initialValue != null) {
-                sb.append(" = ").append(initialValue);
+                out.append(" = ").append(initialValue);
             }
-            sb.append(";");
-            return sb.toString();
+            out.append(';');
         }
     }
 
     class Method extends Member {
 
         public String annotations;
+        public String typeParameters; // "T extends Comparable<T>"
         public String returnType;
         public String name;
         public String parameters;
@@ -559,134 +1054,114 @@ public class CheckThat {
                 body = "";
             }
             body += s;
+            changed();
         }
 
         @Override
-        public String toString() {
-            StringBuilder sb = new StringBuilder();
-
+        void emit(Emitter out) throws IOException {
             if (annotations != null) {
-                sb.append(annotations).append("\n");
+                out.append(annotations).append('\n');
             }
 
-            if (!classType.equals("interface") && !modifiers.toString().equals("")) {
-                sb.append(modifiers.toString()).append(" ");
+            String modifierText = modifiers.toString();
+            if (!classType.equals("interface") && !modifierText.equals("")) {
+                out.append(modifierText).append(' ');
+            }
+            if (typeParameters != null) {
+                out.append('<').append(typeParameters).append("> ");
             }
             if (returnType != null) {
-                sb.append(returnType).append(" ");
+                out.append(returnType).append(' ');
             }
-            sb.append(name).append("(").append(parameters).append(")");
+            out.append(name).append('(').append(String.valueOf(parameters)).append(')');
 
             if (exceptions != null) {
-                sb.append(exceptions);
+                out.append(exceptions);
             }
 
-            if (modifiers.abstractness != null) {
-                return sb.append(";").toString();
+            if (modifiers.isAbstract()) {
+                out.append(';');
+                return;
             }
 
-            sb.append(" {\n");
+            out.append(" {\n");
             if (body != null) {
-                sb.append(indented(body)).append("\n");
+                out.indent().append(body).dedent().append('\n');
             } else if (returnType != null && !returnType.equals("void")) {
-                sb.append(indented("return " + getDefaultReturnValue(returnType) + ";")).append("\n");
+                out.indent().append("return ").append(getDefaultReturnValue(returnType)).append(';').dedent().append('\n');
             }
-            sb.append("}");
-
-            return sb.toString();
+            out.append('}');
         }
 
         private String getDefaultReturnValue(String returnType) {
             if (returnType.equals("boolean")) {
                 return "false";
             }
-            return new Variable(returnType).isPrimitive() ? "0" : "null";
+            return Variable.isPrimitive(returnType) ? "0" : "null";
         }
     }
 
     private Method toStringMethod() {
-        Method result = new Method("toString", "", "return super.toString();");
+        Method result = new Method("toString", "", Templates.TO_STRING.fill(className));
         result.annotations = "@Override";
-        result.modifiers.visibility = "public";
+        result.modifiers.set(Condition.VISIBLE_TO_ALL);
         result.returnType = "String";
         return result;
     }
 
-    private Method hashCodeMethod() {
+    Method hashCodeMethod() {
         imports.add("java.util.Objects");
         ArrayList<String> fieldNames = new ArrayList<>();
         for (Field f : fields) {
             fieldNames.add(f.variable.name);
         }
-        String body = "return Objects.hash(" + String.join(", ", fieldNames) + ");";
-        Method result = new Method("hashCode", "", body);
+        Method result = new Method("hashCode", "", Templates.HASH_CODE.fill(String.join(", ", fieldNames)));
         result.annotations = "@Override";
-        result.modifiers.visibility = "public";
+        result.modifiers.set(Condition.VISIBLE_TO_ALL);
         result.returnType = "int";
         return result;
     }
 
-    private Method equalsMethod() {
+    Method equalsMethod() {
         ArrayList<String> comparisons = new ArrayList<>();
         for (Field f : fields) {
             String name = f.variable.name;
             if (f.variable.isPrimitive()) {
-                comparisons.add(String.format("%s == t.%s", name, name));
+                comparisons.add(Templates.EQUALS_PRIMITIVE.fill(name));
             } else if (f.variable.type.endsWith("[]")) {
                 imports.add("java.util.Arrays");
-                comparisons.add(String.format("Arrays.equals(%s, t.%s)", name, name));
+                comparisons.add(Templates.EQUALS_ARRAY.fill(name));
             } else {
-                comparisons.add(String.format("%s.equals(%s)", name, name));
+                comparisons.add(Templates.EQUALS_OBJECT.fill(name));
             }
         }
 
-        String body = String.format(
-                """
-            if(that != null && getClass().equals(that.getClass())) {
-            %1$s%2$s t = (%2$s)that;
-            %1$sreturn %3$s;
-            }
-            return false;""",
-                INDENTATION,
-                className,
-                String.join(" && ", comparisons)
-        );
-
+        String body = Templates.EQUALS.fill(className, String.join(Templates.EQUALS_SEPARATOR.fill(), comparisons));
         Method result = new Method("equals", "Object that", body);
         result.annotations = "@Override";
-        result.modifiers.visibility = "public";
+        result.modifiers.set(Condition.VISIBLE_TO_ALL);
         result.returnType = "boolean";
         return result;
     }
 
     private Method compareToMethod() {
-        Method result = new Method("compareTo", className + " other");
+        Method result = new Method("compareTo", className + " other", Templates.COMPARE_TO.fill(className));
         result.annotations = "@Override";
-        result.modifiers.visibility = "public";
+        result.modifiers.set(Condition.VISIBLE_TO_ALL);
         result.returnType = "int";
         return result;
     }
 
     public CheckThat thatIs(Condition... conditions) {
+        return forCurrentThread(GeneratorMetrics.Call.THAT_IS).setModifiers(conditions);
+    }
+
+    private CheckThat setModifiers(Condition... conditions) {
         Modifiers modifiers = (inspectedMember != null) ? inspectedMember.modifiers : this.modifiers;
 
-        for (Condition condition : conditions) {
-            switch (condition.type) {
-                case STATICNESS:
-                    modifiers.staticness = condition.modifier;
-                    break;
-                case MODIFIABILITY:
-                    modifiers.modifiability = condition.modifier;
-                    break;
-                case ABSTRACTNESS:
-                    modifiers.abstractness = condition.modifier;
-                    break;
-                case VISIBILITY:
-                    modifiers.visibility = condition.modifier;
-                    break;
-                default:
-                    throw new IllegalArgumentException();
-            }
+        modifiers.set(conditions);
+        if (inspectedMember != null) {
+            inspectedMember.changed();
         }
 
         writeToFile();
@@ -694,7 +1169,12 @@ public class CheckThat {
     }
 
     public CheckThat thatIsInheritedFrom(String parent) {
+        return forCurrentThread(GeneratorMetrics.Call.THAT_IS_INHERITED_FROM).setInherited(parent);
+    }
+
+    private CheckThat setInherited(String parent) {
         ((Method) inspectedMember).annotations = "@Override";
+        inspectedMember.changed();
         return this;
     }
 
@@ -702,77 +1182,366 @@ public class CheckThat {
     
     @Override
     public String toString() {
-        ArrayList<String> fileSections = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        try {
+            render(sb);
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString());
+        }
+        return sb.toString();
+    }
+
+    public static final String INDENTATION = "    ";
 
-        fileSections.add("package " + String.join(".", packagePath) + ";");
+    // Writes the source of the class in one pass
+    public void render(Appendable target) throws IOException {
+        GeneratorEvents.RenderEvent event = new GeneratorEvents.RenderEvent();
+        event.begin();
+        long start = GeneratorMetrics.enabled ? System.nanoTime() : 0;
+        long length = renderSource(target);
+        if (GeneratorMetrics.enabled) {
+            metrics.rendered(qualifiedName(), System.nanoTime() - start);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = qualifiedName();
+            event.members = memberCount();
+            event.bytes = length;
+            event.commit();
+        }
+    }
 
-        if (!imports.isEmpty()) {
-            ArrayList<String> importsList = new ArrayList<>(imports);
-            Collections.sort(importsList);
-            fileSections.add(String.join("\n", map(importsList, s -> "import " + s + ";")));
+    private int memberCount() {
+        return fields.size() + constructors.size() + fieldMethods.size() + classMethods.size();
+    }
+
+    // The fields and methods in the order they were last rendered
+    List<Member> members() {
+        List<Member> members = new ArrayList<>(fields);
+        members.addAll(constructors);
+        members.addAll(fieldMethods);
+        members.addAll(classMethods);
+        if (derivedMethods != null) {
+            members.addAll(derivedMethods);
+        }
+        return members;
+    }
+
+    // Returns the number of characters written
+    private long renderSource(Appendable target) throws IOException {
+        ArrayList<Method> methods = new ArrayList<>();
+
+        methods.addAll(constructors);
+        methods.addAll(fieldMethods);
+        methods.addAll(classMethods);
+
+        // Derived methods record their own imports, so they are built before the imports are rendered
+        if (derivedMethods == null) {
+            List<Method> derived = new ArrayList<>();
+            if (hasEqualityCheck) {
+                derived.add(hashCodeMethod());
+                derived.add(equalsMethod());
+            }
+            if (hasOrdering) {
+                derived.add(compareToMethod());
+            }
+            derivedMethods = derived;
+        }
+        methods.addAll(derivedMethods);
+
+        if (verify) {
+            for (Method method : methods.subList(constructors.size() + fieldMethods.size() + classMethods.size(), methods.size())) {
+                method.callSite = callSite;
+            }
+            List<Member> members = new ArrayList<>(fields);
+            members.addAll(methods);
+            renderedMembers = members;
         }
 
-        String classNameWithTypeParam = className + ((typeParameter != null) ? ("<" + typeParameter + ">") : "");
+        Emitter out = new Emitter(target);
 
-        String classHeader
-                = Stream.of(modifiers.toString(), classType, classNameWithTypeParam, parentInfo, "{\n")
-                        .filter(x -> x != null && !x.equals(""))
-                        .collect(Collectors.joining(" "));
+        out.append("package ");
+        for (int i = 0; i < packagePath.length; i++) {
+            out.append(i == 0 ? "" : ".").append(packagePath[i]);
+        }
+        out.append(";\n\n");
+
+        if (!imports.isEmpty()) {
+            for (String name : imports) {
+                out.append("import ").append(name).append(";\n");
+            }
+            out.append('\n');
+        }
 
-        ArrayList<String> bodySections = new ArrayList<>();
+        String modifierText = modifiers.toString();
+        if (!modifierText.equals("")) {
+            out.append(modifierText).append(' ');
+        }
+        out.append(classType).append(' ').append(className);
+        if (typeParameter != null) {
+            out.append('<').append(typeParameter).append('>');
+        }
+        out.append(' ');
+        if (parentInfo != null && !parentInfo.equals("")) {
+            out.append(parentInfo).append(' ');
+        }
+        out.append("{\n").indent();
 
         if (enumElements != null) {
-            bodySections.add(String.join(",\n", enumElements) + ";");
+            for (int i = 0; i < enumElements.length; i++) {
+                out.append(i == 0 ? "" : ",\n").append(enumElements[i]);
+            }
+            out.append(";\n\n");
         }
 
         if (!fields.isEmpty()) {
-            bodySections.add(String.join("\n", map(fields, f -> f.toString())));
+            for (Field field : fields) {
+                field.firstLine = out.nextLine();
+                field.emitCached(out);
+                field.lastLine = out.line();
+                out.append('\n');
+            }
+            out.append('\n');
         }
 
-        ArrayList<Method> methods = new ArrayList<>();
+        for (int i = 0; i < methods.size(); i++) {
+            out.append(i == 0 ? "" : "\n\n");
+            Method method = methods.get(i);
+            method.firstLine = out.nextLine();
+            method.emitCached(out);
+            method.lastLine = out.line();
+        }
 
-        methods.addAll(constructors);
-        methods.addAll(fieldMethods);
-        methods.addAll(classMethods);
+        out.dedent().append("\n}");
+        out.finish();
+        return out.length();
+    }
 
-        if (hasEqualityCheck) {
-            methods.add(hashCodeMethod());
-            methods.add(equalsMethod());
+    public void writeToFile() {
+        claimImports();
+        if (deferWrites || dependencies) {
+            pendingWrites.add(this);
+            return;
         }
+        flush();
+    }
 
-        if (hasOrdering) {
-            methods.add(compareToMethod());
+    public static void flushPendingWrites() {
+        List<CheckThat> models;
+        synchronized (pendingWrites) {
+            models = new ArrayList<>(pendingWrites);
+            pendingWrites.clear();
+        }
+        if (dependencies) {
+            models = DependencyResolver.resolve(models);
+        }
+        for (CheckThat model : models) {
+            model.flush();
+        }
+        try {
+            output.drain();
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString());
         }
+    }
 
-        bodySections.add(String.join("\n\n", map(methods, m -> m.toString())));
+    /* VERIFICATION */
 
-        fileSections.add(classHeader + indented(String.join("\n\n", bodySections)) + "\n}");
+    // The first caller outside of CheckThat and the JDK
+    private static String callSite() {
+        String callSite = Generation.get().callSite;
+        if (callSite != null) {
+            return callSite;
+        }
+        return stackWalker.walk(frames -> frames
+                .filter(f -> !f.getClassName().startsWith("check.") && !f.getClassName().startsWith("java.")
+                        && !f.getClassName().startsWith("jdk.") && !f.getClassName().startsWith("sun."))
+                .findFirst()
+                .map(f -> f.toStackTraceElement().toString())
+                .orElse(null));
+    }
+
+    // The call that generated the given line of the last rendering
+    private String callSiteAt(long line) {
+        for (Member member : renderedMembers) {
+            if (member.firstLine <= line && line <= member.lastLine && member.callSite != null) {
+                return member.callSite;
+            }
+        }
+        return callSite;
+    }
+
+    // Compiles every class generated so far together with the given tests, and prints the problems.
+    // Returns whether everything compiled.
+    static boolean verifyGeneratedSources(List<Path> testSources, String classpath) {
+        Map<Path, byte[]> sources = new TreeMap<>();
+        try {
+            for (Path path : generatedModels.keySet()) {
+                byte[] content = output.read(path);
+                if (content != null) {
+                    sources.put(path, content);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString());
+        }
 
-        return String.join("\n\n", fileSections);
+        return CompileVerifier.verify(sources, testSources, classpath, (path, line) -> {
+            CheckThat model = generatedModels.get(path);
+            return (model != null) ? model.callSiteAt(line) : null;
+        });
     }
 
-    public static final String INDENTATION = "    ";
+    /* DEPENDENCIES */
 
-    private String indented(String text) {
-        ArrayList<String> resultLines = new ArrayList<>();
-        for (String line : text.split("\n")) {
-            resultLines.add((line.equals("") ? "" : INDENTATION) + line);
+    // The names of the classes this class refers to, with the kind of class they have to be:
+    // "class", "interface" or "exception"
+    Map<String, String> typeReferences() {
+        Map<String, String> references = new TreeMap<>();
+        if (parentInfo != null) {
+            String kind = classType.equals("interface") ? "interface" : "class";
+            for (String word : parentInfo.split("[^\\w.$]+")) {
+                if (word.equals("implements")) {
+                    kind = "interface";
+                }
+                DependencyResolver.addTypeNames(word, kind, references);
+            }
+        }
+        for (Field field : fields) {
+            DependencyResolver.addTypeNames(field.variable.type, "class", references);
+        }
+        for (List<Method> methods : List.of(constructors, fieldMethods, classMethods)) {
+            for (Method method : methods) {
+                Map<String, String> methodReferences = new TreeMap<>();
+                DependencyResolver.addTypeNames(method.typeParameters, "class", methodReferences);
+                DependencyResolver.addTypeNames(method.returnType, "class", methodReferences);
+                for (TypeDescriptor parameterType : TypeDescriptor.parameterTypes(method.parameters)) {
+                    DependencyResolver.addTypeNames(parameterType.toString(), "class", methodReferences);
+                }
+                DependencyResolver.addTypeNames(method.exceptions, "exception", methodReferences);
+                methodReferences.keySet().removeAll(DependencyResolver.typeVariables(method.typeParameters));
+                methodReferences.forEach(references::putIfAbsent);
+            }
         }
-        return String.join("\n", resultLines);
+        references.keySet().removeAll(DependencyResolver.typeVariables(typeParameter));
+        references.remove(className);
+        return references;
     }
 
-    public void writeToFile() {
-        File targetFile = new File(String.join(File.separator, packagePath), className + ".java");
-        File parent = targetFile.getParentFile();
-        if (!parent.exists()) {
-            parent.mkdirs();
+    // The offset after the type parameters a method name or return type starts with, "<T> T", or 0
+    private static int typeParametersEnd(String text) {
+        int start = text.indexOf('<');
+        if (start < 0 || !text.substring(0, start).isBlank()) {
+            return 0;
+        }
+        int depth = 0;
+        for (int i = start; i < text.length(); i++) {
+            if (text.charAt(i) == '<') {
+                depth++;
+            } else if (text.charAt(i) == '>' && --depth == 0) {
+                return i + 1;
+            }
         }
+        return 0;
+    }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(targetFile))) {
-            writer.write(this.toString());
+    // An empty class, interface or exception, unless the file already exists
+    static CheckThat stub(String qualifiedName, String kind) {
+        String[] nameParts = qualifiedName.split("\\.");
+        Path path = Paths.get(String.join(File.separator, Arrays.copyOf(nameParts, nameParts.length - 1)),
+                nameParts[nameParts.length - 1] + ".java");
+        try {
+            if (output.exists(path)) {
+                return null;
+            }
         } catch (IOException e) {
             throw new RuntimeException(e.toString());
         }
+        CheckThat stub = new CheckThat(qualifiedName, kind.equals("interface") ? "interface" : "class",
+                kind.equals("exception") ? "extends Exception" : null);
+        stub.modifiers.set(Condition.VISIBLE_TO_ALL);
+        return stub;
+    }
+
+    String qualifiedName() {
+        return (packagePath.length == 0) ? className : packageName() + "." + className;
+    }
+
+    String packageName() {
+        return String.join(".", packagePath);
+    }
+
+    ImportTable imports() {
+        return imports;
+    }
+
+    private Path targetPath() {
+        return Paths.get(String.join(File.separator, packagePath), className + ".java");
+    }
+
+    // The source as it is written: rendered in memory, sized from the previous rendering, and
+    // encoded in one go
+    byte[] encoded() throws IOException {
+        StringBuilder text = new StringBuilder(Math.max(lastRenderSize, 1024));
+        render(text);
+        lastRenderSize = text.length();
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void flush() {
+        Path targetPath = targetPath();
+
+        try {
+            byte[] content = encoded();
+            if (mergeTarget != null) {
+                content = SourceMerger.merge(mergeTarget, new String(content, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+                // The lines moved, errors are reported for the class as a whole
+                renderedMembers = List.of();
+            }
+            byte[] digest = digest(content);
+
+            GeneratorEvents.WriteEvent event = new GeneratorEvents.WriteEvent();
+            event.begin();
+            long start = GeneratorMetrics.enabled ? System.nanoTime() : 0;
+            byte[] previous = contentDigest(targetPath);
+            boolean skipped = Arrays.equals(previous, digest);
+            if (skipped) {
+                writtenDigests.put(targetPath, digest);
+                metrics.skippedWrites.increment();
+            } else {
+                output.write(targetPath, content);
+                writtenDigests.put(targetPath, digest);
+                metrics.writes.increment();
+                if (GeneratorMetrics.enabled) {
+                    metrics.written(qualifiedName(), content.length);
+                }
+            }
+            if (GeneratorMetrics.enabled) {
+                metrics.io.record(System.nanoTime() - start);
+            }
+            if (verify) {
+                generatedModels.put(targetPath, this);
+            }
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.className = qualifiedName();
+                event.members = memberCount();
+                event.bytes = content.length;
+                event.skipped = skipped;
+                event.commit();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString());
+        }
+    }
+
+    static byte[] digest(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     public static <T> String toJoinedString(String separator, Iterable<T> elements) {
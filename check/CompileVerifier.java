@@ -0,0 +1,127 @@
+package check;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+// Compiles the generated sources, and optionally the tests, in a single in-process compiler call.
+// The sources are read from memory and the class files are discarded, nothing touches the disk.
+class CompileVerifier {
+
+    // A generated source, identified by its path in the output
+    static class GeneratedSource extends SimpleJavaFileObject {
+
+        final Path path;
+        private final String content;
+
+        GeneratedSource(Path path, byte[] content) {
+            super(URI.create("string:///" + path.toString().replace('\\', '/')), Kind.SOURCE);
+            this.path = path;
+            this.content = new String(content, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return content;
+        }
+    }
+
+    private static class DiscardedClass extends SimpleJavaFileObject {
+
+        DiscardedClass(String className, Kind kind) {
+            super(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+    }
+
+    static List<Diagnostic<? extends JavaFileObject>> compile(Map<Path, byte[]> generated, List<Path> testSources, String classpath) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No Java compiler available, run on a JDK to verify the generated sources");
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+
+        List<JavaFileObject> sources = new ArrayList<>();
+        for (Map.Entry<Path, byte[]> source : generated.entrySet()) {
+            sources.add(new GeneratedSource(source.getKey(), source.getValue()));
+        }
+        for (JavaFileObject test : standard.getJavaFileObjectsFromPaths(testSources)) {
+            sources.add(test);
+        }
+
+        JavaFileManager fileManager = new ForwardingJavaFileManager<>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+                return new DiscardedClass(className, kind);
+            }
+        };
+        List<String> options = List.of("-classpath", classpath, "-proc:none", "-implicit:none");
+        compiler.getTask(null, fileManager, diagnostics, options, null, sources).call();
+        return diagnostics.getDiagnostics();
+    }
+
+    // Compiles the sources and prints the problems, a problem in a generated source together with
+    // the call that generated its line, as found by callSite(path, line). Returns whether everything
+    // compiled.
+    static boolean verify(Map<Path, byte[]> generated, List<Path> testSources, String classpath, BiFunction<Path, Long, String> callSite) {
+        List<Diagnostic<? extends JavaFileObject>> diagnostics;
+        try {
+            diagnostics = compile(generated, testSources, classpath);
+        } catch (IllegalStateException e) {
+            System.err.println("CheckThat: " + e.getMessage());
+            return false;
+        }
+
+        int errors = 0;
+        int warnings = 0;
+        StringBuilder report = new StringBuilder();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors++;
+            } else if (diagnostic.getKind() == Diagnostic.Kind.WARNING
+                    || diagnostic.getKind() == Diagnostic.Kind.MANDATORY_WARNING) {
+                warnings++;
+            } else {
+                continue;
+            }
+            String kind = diagnostic.getKind().toString().toLowerCase().replace('_', ' ');
+            String message = diagnostic.getMessage(null);
+            if (diagnostic.getSource() instanceof GeneratedSource) {
+                Path path = ((GeneratedSource) diagnostic.getSource()).path;
+                report.append(path).append(':').append(diagnostic.getLineNumber()).append(": ").append(kind).append(": ").append(message).append('\n');
+                String site = callSite.apply(path, diagnostic.getLineNumber());
+                report.append(CheckThat.INDENTATION).append(site != null ? "generated by " + site : "placeholder, not generated by a test").append('\n');
+            } else if (diagnostic.getSource() != null) {
+                report.append(diagnostic.getSource().getName()).append(':').append(diagnostic.getLineNumber()).append(": ")
+                        .append(kind).append(": ").append(message).append('\n');
+            } else {
+                report.append(kind).append(": ").append(message).append('\n');
+            }
+        }
+        System.out.println("CheckThat: compiled " + generated.size() + " generated classes" + (testSources.isEmpty() ? "" : " and " + testSources.size() + " tests")
+                + ": " + errors + " errors, " + warnings + " warnings");
+        System.out.print(report);
+        return errors == 0;
+    }
+}
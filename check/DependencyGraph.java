@@ -0,0 +1,97 @@
+package check;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Directed graph of "depends on" edges, split into strongly connected components
+class DependencyGraph<T> {
+
+    private final Map<T, Set<T>> dependencies = new LinkedHashMap<>();
+
+    void add(T node) {
+        dependencies.computeIfAbsent(node, k -> new LinkedHashSet<>());
+    }
+
+    void addDependency(T node, T dependency) {
+        add(node);
+        add(dependency);
+        if (!node.equals(dependency)) {
+            dependencies.get(node).add(dependency);
+        }
+    }
+
+    // The strongly connected components, each one listed after the components it depends on.
+    // Tarjan's algorithm with an explicit stack, so that long chains do not overflow the call stack.
+    List<List<T>> components() {
+        List<List<T>> components = new ArrayList<>();
+        Map<T, Integer> index = new HashMap<>();
+        Map<T, Integer> lowLink = new HashMap<>();
+        Deque<T> stack = new ArrayDeque<>();
+        Set<T> onStack = new LinkedHashSet<>();
+        Deque<Visit<T>> visits = new ArrayDeque<>();
+
+        for (T root : dependencies.keySet()) {
+            if (index.containsKey(root)) {
+                continue;
+            }
+            visits.push(new Visit<>(root, dependencies.get(root).iterator()));
+            index.put(root, index.size());
+            lowLink.put(root, index.get(root));
+            stack.push(root);
+            onStack.add(root);
+
+            while (!visits.isEmpty()) {
+                Visit<T> visit = visits.peek();
+                if (visit.dependencies.hasNext()) {
+                    T next = visit.dependencies.next();
+                    if (!index.containsKey(next)) {
+                        index.put(next, index.size());
+                        lowLink.put(next, index.get(next));
+                        stack.push(next);
+                        onStack.add(next);
+                        visits.push(new Visit<>(next, dependencies.get(next).iterator()));
+                    } else if (onStack.contains(next)) {
+                        lowLink.put(visit.node, Math.min(lowLink.get(visit.node), index.get(next)));
+                    }
+                    continue;
+                }
+
+                visits.pop();
+                if (!visits.isEmpty()) {
+                    T parent = visits.peek().node;
+                    lowLink.put(parent, Math.min(lowLink.get(parent), lowLink.get(visit.node)));
+                }
+                if (lowLink.get(visit.node).equals(index.get(visit.node))) {
+                    List<T> component = new ArrayList<>();
+                    T member;
+                    do {
+                        member = stack.pop();
+                        onStack.remove(member);
+                        component.add(member);
+                    } while (!member.equals(visit.node));
+                    components.add(component);
+                }
+            }
+        }
+        return components;
+    }
+
+    private static class Visit<T> {
+
+        final T node;
+        final Iterator<T> dependencies;
+
+        Visit(T node, Iterator<T> dependencies) {
+            this.node = node;
+            this.dependencies = dependencies;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package check;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Prepares the classes to be written together with -Dcheckthat.dependencies=true, so that they
+// compile in one go:
+// - a class that refers to a generated class of another package by its simple name imports it,
+// - a placeholder stub is generated for every qualified or imported class that does not exist,
+// - the classes are ordered so that every class comes after the ones it depends on, classes
+//   depending on each other directly or indirectly next to each other.
+class DependencyResolver {
+
+    // Qualified names of the classes and stubs generated so far
+    private static final Set<String> generatedClasses = ConcurrentHashMap.newKeySet();
+    // Where simple names of the JDK are looked up that the ImportIndex does not know
+    private static final List<String> JDK_PACKAGES = List.of("java.util", "java.util.function", "java.util.stream",
+            "java.io", "java.nio.file", "java.time", "java.math", "java.text");
+    // Where referenced classes are looked up, the context class loader unless a generator sets it
+    private static volatile ClassLoader classLoader;
+
+    static void setClassLoader(ClassLoader loader) {
+        classLoader = loader;
+    }
+
+    // Records a class generated without going through resolve(), by an earlier run
+    static void generated(String qualifiedName) {
+        generatedClasses.add(qualifiedName);
+    }
+
+    // The models and the stubs they need, in the order they are to be written
+    static List<CheckThat> resolve(List<CheckThat> models) {
+        Map<String, CheckThat> byName = new TreeMap<>();
+        for (CheckThat model : models) {
+            byName.put(model.qualifiedName(), model);
+            generatedClasses.add(model.qualifiedName());
+        }
+        Map<String, List<String>> bySimpleName = new HashMap<>();
+        for (String qualifiedName : generatedClasses) {
+            bySimpleName.computeIfAbsent(qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1), k -> new ArrayList<>())
+                    .add(qualifiedName);
+        }
+
+        DependencyGraph<CheckThat> graph = new DependencyGraph<>();
+        for (CheckThat model : new ArrayList<>(byName.values())) {
+            graph.add(model);
+            for (Map.Entry<String, String> reference : model.typeReferences().entrySet()) {
+                String dependency = resolveReference(model, reference.getKey(), bySimpleName);
+                if (dependency == null) {
+                    continue;
+                }
+                CheckThat target = byName.get(dependency);
+                if (target == null && generatedClasses.add(dependency)) {
+                    target = CheckThat.stub(dependency, reference.getValue());
+                    if (target != null) {
+                        byName.put(dependency, target);
+                    }
+                }
+                if (target != null) {
+                    graph.addDependency(model, target);
+                }
+            }
+        }
+
+        List<CheckThat> ordered = new ArrayList<>();
+        for (List<CheckThat> component : graph.components()) {
+            component.sort(Comparator.comparing(CheckThat::qualifiedName));
+            ordered.addAll(component);
+        }
+        return ordered;
+    }
+
+    // Type names start with a capital letter, variable names in parameter lists do not.
+    // Qualified names are kept, nested ones (Map.Entry) stand for their outer class.
+    static void addTypeNames(String text, String kind, Map<String, String> references) {
+        if (text == null) {
+            return;
+        }
+        for (String word : text.split("[^\\w.$]+")) {
+            if (!word.isEmpty() && Character.isUpperCase(word.charAt(0)) && word.contains(".")) {
+                word = word.substring(0, word.indexOf('.'));
+            }
+            int dot = word.lastIndexOf('.');
+            if (word.length() > dot + 1 && Character.isUpperCase(word.charAt(dot + 1))) {
+                references.putIfAbsent(word, kind);
+            }
+        }
+    }
+
+    // The names declared by type parameters, which are no classes: "T, U extends Map<T, U>" declares T and U
+    static Set<String> typeVariables(String typeParameters) {
+        Set<String> names = new HashSet<>();
+        if (typeParameters == null) {
+            return names;
+        }
+        int depth = 0;
+        boolean declaration = true;
+        for (String token : typeParameters.split("(?=[<>,])|(?<=[<>,])|\\s+")) {
+            token = token.trim();
+            if (token.equals("<")) {
+                depth++;
+            } else if (token.equals(">")) {
+                depth--;
+            } else if (token.equals(",") && depth == 0) {
+                declaration = true;
+            } else if (declaration && !token.isEmpty()) {
+                names.add(token);
+                declaration = false;
+            }
+        }
+        return names;
+    }
+
+    // The qualified name of a referenced class that is generated, or has to be. A stub is only made
+    // for a name that is qualified or imported but does not exist; a simple name has to be that of
+    // a generated class, of the same package first, then of another package, which is imported.
+    // Simple names of the JDK that the ImportIndex does not know are imported from the common
+    // packages. Returns null for classes that exist, for ambiguous names and for names that cannot
+    // be resolved, which are left as they are rather than made up.
+    private static String resolveReference(CheckThat model, String name, Map<String, List<String>> bySimpleName) {
+        String simpleName = name.substring(name.lastIndexOf('.') + 1);
+        String qualifiedName = name.contains(".") ? name : null;
+        for (String imported : model.imports()) {
+            if (imported.endsWith("." + simpleName)) {
+                qualifiedName = imported;
+            }
+        }
+        if (qualifiedName != null) {
+            return (generatedClasses.contains(qualifiedName) || !classExists(qualifiedName)) ? qualifiedName : null;
+        }
+
+        String packageName = model.packageName();
+        String samePackage = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        if (generatedClasses.contains(samePackage)) {
+            return samePackage;
+        }
+        if (classExists("java.lang." + simpleName) || classExists(samePackage) || ImportIndex.get().resolve(simpleName) != null) {
+            return null;
+        }
+        List<String> candidates = bySimpleName.getOrDefault(simpleName, List.of());
+        if (candidates.size() == 1) {
+            model.imports().add(candidates.get(0));
+            return candidates.get(0);
+        }
+        if (candidates.isEmpty()) {
+            String jdkClass = jdkClass(simpleName);
+            if (jdkClass != null) {
+                model.imports().add(jdkClass);
+            }
+        }
+        return null;
+    }
+
+    // The class of that simple name in exactly one of the common JDK packages, or null
+    private static String jdkClass(String simpleName) {
+        String found = null;
+        for (String packageName : JDK_PACKAGES) {
+            if (classExists(packageName + "." + simpleName)) {
+                if (found != null) {
+                    return null;
+                }
+                found = packageName + "." + simpleName;
+            }
+        }
+        return found;
+    }
+
+    private static boolean classExists(String qualifiedName) {
+        try {
+            ClassLoader loader = classLoader;
+            Class.forName(qualifiedName, false, (loader != null) ? loader : Thread.currentThread().getContextClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
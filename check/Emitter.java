@@ -0,0 +1,119 @@
+package check;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// Writes generated code to an Appendable in one pass, indenting every non-empty line by the
+// current level. Newlines are held back until more text follows, so that the trailing newlines
+// of an indented block are dropped when the block ends.
+class Emitter {
+
+    private final Appendable out;
+    private int level = 0;
+    private int pendingNewlines = 0;
+    private boolean atLineStart = true;
+    private long written = 0;
+    private long length = 0;
+    private int lines = 0;
+    // For each open block: the newlines pending when it was opened, and the amount written by then
+    private final Deque<long[]> blocks = new ArrayDeque<>();
+
+    Emitter(Appendable out) {
+        this.out = out;
+    }
+
+    // Writes the text between newlines in runs, rather than character by character
+    Emitter append(CharSequence text) throws IOException {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                appendRun(text, start, i);
+                pendingNewlines++;
+                start = i + 1;
+            }
+        }
+        appendRun(text, start, text.length());
+        return this;
+    }
+
+    Emitter append(char c) throws IOException {
+        if (c == '\n') {
+            pendingNewlines++;
+            return this;
+        }
+        startText();
+        out.append(c);
+        written++;
+        length++;
+        return this;
+    }
+
+    // Writes text[start..end), which has no newlines
+    private void appendRun(CharSequence text, int start, int end) throws IOException {
+        if (start == end) {
+            return;
+        }
+        startText();
+        out.append(text, start, end);
+        written += end - start;
+        length += end - start;
+    }
+
+    // Writes the newlines held back and the indentation of a new line, before more text
+    private void startText() throws IOException {
+        if (pendingNewlines > 0) {
+            length += pendingNewlines;
+            lines += pendingNewlines;
+            for (; pendingNewlines > 0; pendingNewlines--) {
+                out.append('\n');
+            }
+            atLineStart = true;
+        }
+        if (atLineStart) {
+            for (int i = 0; i < level; i++) {
+                out.append(CheckThat.INDENTATION);
+            }
+            length += (long) level * CheckThat.INDENTATION.length();
+            atLineStart = false;
+        }
+    }
+
+    Emitter indent() {
+        blocks.push(new long[]{pendingNewlines, written});
+        level++;
+        return this;
+    }
+
+    Emitter dedent() {
+        long[] block = blocks.pop();
+        // Newlines written inside the block are dropped, the ones from before it are kept
+        pendingNewlines = (written == block[1]) ? (int) block[0] : 0;
+        level--;
+        return this;
+    }
+
+    // Number of characters written so far
+    long length() {
+        return length;
+    }
+
+    // The line of the last character written, counting from 1
+    int line() {
+        return lines + 1;
+    }
+
+    // The line the next character will be written to, if it is no newline
+    int nextLine() {
+        return lines + pendingNewlines + 1;
+    }
+
+    // Writes the newlines that are still held back
+    void finish() throws IOException {
+        length += pendingNewlines;
+        lines += pendingNewlines;
+        for (; pendingNewlines > 0; pendingNewlines--) {
+            out.append('\n');
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package check;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+// Remembers the files every test class generated, so that the next run can skip the test classes
+// that did not change and whose generated files are untouched. The index is kept in the output as
+// .checkthat-cache: a line with the digest of the generator and its configuration, which invalidates
+// everything when it changes, then per test class
+//   <test class> <digest of its bytecode or source>
+//   <tab><generated file> <digest of its content>
+class GenerationCache {
+
+    static final Path INDEX = Paths.get(".checkthat-cache");
+
+    private final OutputSink output;
+    private final String generator;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean changed = false;
+
+    private static class Entry {
+
+        final String input;
+        final Map<Path, String> files = new TreeMap<>();
+
+        Entry(String input) {
+            this.input = input;
+        }
+    }
+
+    private GenerationCache(OutputSink output, String generator) {
+        this.output = output;
+        this.generator = generator;
+    }
+
+    static GenerationCache load(OutputSink output) throws IOException {
+        GenerationCache cache = new GenerationCache(output, generatorDigest());
+        byte[] index = output.read(INDEX);
+        if (index == null) {
+            return cache;
+        }
+        String[] lines = new String(index, StandardCharsets.UTF_8).split("\n");
+        if (!lines[0].equals(cache.generator)) {
+            cache.changed = true;
+            return cache;
+        }
+        Entry entry = null;
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            int separator = line.lastIndexOf(' ');
+            if (separator < 0) {
+                continue;
+            }
+            if (line.startsWith("\t")) {
+                if (entry != null) {
+                    entry.files.put(Paths.get(line.substring(1, separator)), line.substring(separator + 1));
+                }
+            } else {
+                entry = new Entry(line.substring(separator + 1));
+                cache.entries.put(line.substring(0, separator), entry);
+            }
+        }
+        return cache;
+    }
+
+    // Whether the test class was generated from the same input before and its files are unchanged.
+    // If so, the files count as generated by this run, so that other classes can depend on them and
+    // a watcher can regenerate them later.
+    boolean reuse(String testClass, byte[] input) throws IOException {
+        Entry entry = entries.get(testClass);
+        if (input == null || entry == null || !entry.input.equals(encode(CheckThat.digest(input)))) {
+            return false;
+        }
+        for (Map.Entry<Path, String> file : entry.files.entrySet()) {
+            byte[] digest = CheckThat.contentDigest(file.getKey());
+            if (digest == null || !encode(digest).equals(file.getValue())) {
+                return false;
+            }
+        }
+        for (Map.Entry<Path, String> file : entry.files.entrySet()) {
+            CheckThat.reuseGeneratedFile(file.getKey(), Base64.getDecoder().decode(file.getValue()));
+        }
+        return true;
+    }
+
+    // Records the files of a test class that ran, once they are written. Test classes that failed
+    // are not recorded, their outcome may depend on more than their input.
+    void record(BatchGenerator.Result result, byte[] input) throws IOException {
+        changed = true;
+        if (input == null || !result.failures.isEmpty()) {
+            entries.remove(result.className);
+            return;
+        }
+        Entry entry = new Entry(encode(CheckThat.digest(input)));
+        for (Path file : result.files) {
+            byte[] digest = CheckThat.contentDigest(file);
+            if (digest == null) {
+                entries.remove(result.className);
+                return;
+            }
+            entry.files.put(file, encode(digest));
+        }
+        entries.put(result.className, entry);
+    }
+
+    void save() throws IOException {
+        if (!changed) {
+            return;
+        }
+        changed = false;
+        StringBuilder index = new StringBuilder(generator).append('\n');
+        for (Map.Entry<String, Entry> entry : new TreeMap<>(entries).entrySet()) {
+            index.append(entry.getKey()).append(' ').append(entry.getValue().input).append('\n');
+            for (Map.Entry<Path, String> file : entry.getValue().files.entrySet()) {
+                index.append('\t').append(file.getKey()).append(' ').append(file.getValue()).append('\n');
+            }
+        }
+        output.write(INDEX, index.toString().getBytes(StandardCharsets.UTF_8));
+        output.drain();
+    }
+
+    // A different version of the generator, other imports, templates or options may generate different
+    // code from the same tests: every class of the generator, the configured imports and templates and
+    // the options that change the output are part of the digest
+    private static String generatorDigest() throws IOException {
+        ByteArrayOutputStream generator = new ByteArrayOutputStream();
+        for (byte[] classFile : generatorClasses().values()) {
+            generator.write(classFile);
+        }
+        generator.write(String.join("\n", ImportIndex.configuredNames()).getBytes(StandardCharsets.UTF_8));
+        generator.write(Templates.overridesText().getBytes(StandardCharsets.UTF_8));
+        generator.write(CheckThat.outputOptions().getBytes(StandardCharsets.UTF_8));
+        return encode(CheckThat.digest(generator.toByteArray()));
+    }
+
+    // The class files of the package by name, from the directory or the jar CheckThat was loaded from
+    private static Map<String, byte[]> generatorClasses() throws IOException {
+        Map<String, byte[]> classes = new TreeMap<>();
+        CodeSource source = CheckThat.class.getProtectionDomain().getCodeSource();
+        if (source == null) {
+            return classes;
+        }
+        Path location;
+        try {
+            location = Paths.get(source.getLocation().toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return classes;
+        }
+        String packageDir = CheckThat.class.getPackageName().replace('.', '/') + "/";
+        if (Files.isDirectory(location)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(location.resolve(packageDir), "*.class")) {
+                for (Path file : files) {
+                    classes.put(file.getFileName().toString(), Files.readAllBytes(file));
+                }
+            }
+        } else {
+            try (JarFile jar = new JarFile(location.toFile())) {
+                for (JarEntry entry : Collections.list(jar.entries())) {
+                    String name = entry.getName();
+                    if (name.startsWith(packageDir) && name.endsWith(".class") && name.indexOf('/', packageDir.length()) < 0) {
+                        try (InputStream in = jar.getInputStream(entry)) {
+                            classes.put(name.substring(packageDir.length()), in.readAllBytes());
+                        }
+                    }
+                }
+            }
+        }
+        return classes;
+    }
+
+    private static String encode(byte[] digest) {
+        return Base64.getEncoder().encodeToString(digest);
+    }
+}
@@ -0,0 +1,70 @@
+package check;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Flight Recorder events of the generator, recorded with -XX:StartFlightRecording.
+// When recording is off the events are never committed and cost next to nothing.
+final class GeneratorEvents {
+
+    private GeneratorEvents() {
+    }
+
+    @Name("check.Session")
+    @Label("CheckThat Session")
+    @Category("CheckThat")
+    @Description("A class modelled from theClass(), theEnum() or theInterface() until the next one is started on the thread")
+    static class SessionEvent extends Event {
+
+        @Label("Class Name")
+        String className;
+
+        @Label("Members")
+        int members;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("check.Render")
+    @Label("CheckThat Render")
+    @Category("CheckThat")
+    @Description("Rendering of the source of a class")
+    static class RenderEvent extends Event {
+
+        @Label("Class Name")
+        String className;
+
+        @Label("Members")
+        int members;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("check.Write")
+    @Label("CheckThat Write")
+    @Category("CheckThat")
+    @Description("Writing of the source of a class, skipped when the content has not changed")
+    static class WriteEvent extends Event {
+
+        @Label("Class Name")
+        String className;
+
+        @Label("Members")
+        int members;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Skipped")
+        boolean skipped;
+    }
+}
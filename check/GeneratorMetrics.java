@@ -0,0 +1,352 @@
+package check;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+// Counters and phase timings of a generation run, reported at exit with -Dcheckthat.metrics=summary
+// (printed), or =<file>.json or =<file>.csv (dumped). When that property is set, they are also
+// exposed through JMX as check:type=GeneratorMetrics. Without it only the write and type cache
+// counts that CheckThat.writeStatistics() and typeCacheStatistics() report are kept, callers skip
+// the timings and per-class statistics when enabled is false.
+class GeneratorMetrics implements GeneratorMetricsMBean {
+
+    enum Call {
+        WITH_TYPE_PARAMETERS, HAS_FIELD, HAS_METHOD, HAS_CONSTRUCTOR, HAS_ENUM_ELEMENTS, THAT_RETURNS,
+        THAT_CAN_RAISE, IMPLEMENTS_METHOD, HAS, THAT_HAS, THAT_HAS_VALUE, THAT_CALLS, THAT, THAT_IS,
+        THAT_IS_INHERITED_FROM
+    }
+
+    static final GeneratorMetrics metrics = new GeneratorMetrics();
+
+    private static final String output = System.getProperty("checkthat.metrics");
+
+    static final boolean enabled = output != null;
+
+    final Map<String, LongAdder> modelsCreated = new ConcurrentHashMap<>();
+    final LongAdder[] calls = new LongAdder[Call.values().length];
+    final LongAdder renders = new LongAdder();
+    final LongAdder writes = new LongAdder();
+    final LongAdder bytesWritten = new LongAdder();
+    final LongAdder skippedWrites = new LongAdder();
+    final LongAdder typeCacheHits = new LongAdder();
+    final LongAdder typeCacheMisses = new LongAdder();
+    final Histogram parse = new Histogram();
+    final Histogram render = new Histogram();
+    final Histogram io = new Histogram();
+    private final Map<String, ClassStatistics> classes = new ConcurrentHashMap<>();
+
+    private GeneratorMetrics() {
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = new LongAdder();
+        }
+    }
+
+    static {
+        if (enabled) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new StandardMBean(metrics, GeneratorMetricsMBean.class), new ObjectName("check:type=GeneratorMetrics"));
+            } catch (JMException e) {
+                System.err.println("CheckThat: could not register metrics MBean: " + e);
+            }
+        }
+    }
+
+    void modelCreated(String classType) {
+        if (!enabled) {
+            return;
+        }
+        modelsCreated.computeIfAbsent(classType, k -> new LongAdder()).increment();
+    }
+
+    void call(Call call) {
+        if (!enabled) {
+            return;
+        }
+        calls[call.ordinal()].increment();
+    }
+
+    void rendered(String className, long nanos) {
+        renders.increment();
+        render.record(nanos);
+        ClassStatistics statistics = classes.computeIfAbsent(className, k -> new ClassStatistics());
+        statistics.renders.increment();
+        statistics.renderNanos.add(nanos);
+    }
+
+    void written(String className, int bytes) {
+        bytesWritten.add(bytes);
+        ClassStatistics statistics = classes.computeIfAbsent(className, k -> new ClassStatistics());
+        statistics.writes.increment();
+        statistics.bytes.add(bytes);
+    }
+
+    // Log2-bucketed histogram of durations, cheap enough to record every call
+    static class Histogram {
+
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            buckets[64 - Long.numberOfLeadingZeros(Math.max(nanos, 1)) - 1].increment();
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long total() {
+            return total.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        // Upper bound of the bucket that contains the given fraction of the samples
+        long percentile(double fraction) {
+            long target = (long) Math.ceil(count.sum() * fraction);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= target && seen > 0) {
+                    return Math.min((1L << (i + 1)) - 1, max());
+                }
+            }
+            return 0;
+        }
+    }
+
+    static class ClassStatistics {
+
+        final LongAdder renders = new LongAdder();
+        final LongAdder renderNanos = new LongAdder();
+        final LongAdder writes = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+    }
+
+    /* REPORTING */
+
+    static void report() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (output.equals("summary")) {
+                System.out.println(metrics.getSummary());
+            } else if (output.endsWith(".csv")) {
+                Files.writeString(Paths.get(output), metrics.toCsv());
+            } else {
+                Files.writeString(Paths.get(output), metrics.getJson());
+            }
+        } catch (IOException e) {
+            System.err.println("CheckThat: could not write metrics: " + e);
+        }
+    }
+
+    private Map<String, Long> counters() {
+        Map<String, Long> counters = new TreeMap<>();
+        counters.put("modelsCreated", getModelsCreated());
+        counters.put("fluentCalls", getFluentCalls());
+        counters.put("renders", getRenders());
+        counters.put("writes", getWrites());
+        counters.put("bytesWritten", getBytesWritten());
+        counters.put("skippedWrites", getSkippedWrites());
+        counters.put("typeCacheHits", getTypeCacheHits());
+        counters.put("typeCacheMisses", getTypeCacheMisses());
+        for (Map.Entry<String, LongAdder> entry : modelsCreated.entrySet()) {
+            counters.put("modelsCreated." + entry.getKey(), entry.getValue().sum());
+        }
+        for (Call call : Call.values()) {
+            counters.put("calls." + callName(call), calls[call.ordinal()].sum());
+        }
+        return counters;
+    }
+
+    private Map<String, Histogram> phases() {
+        Map<String, Histogram> phases = new TreeMap<>();
+        phases.put("parse", parse);
+        phases.put("render", render);
+        phases.put("io", io);
+        return phases;
+    }
+
+    private List<Map.Entry<String, ClassStatistics>> slowestClasses() {
+        List<Map.Entry<String, ClassStatistics>> entries = new ArrayList<>(classes.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<String, ClassStatistics> e) -> e.getValue().renderNanos.sum()).reversed());
+        return entries;
+    }
+
+    // hasField, thatIs, ...
+    private static String callName(Call call) {
+        StringBuilder sb = new StringBuilder();
+        for (String word : call.name().toLowerCase().split("_")) {
+            sb.append(sb.length() == 0 ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder("CheckThat metrics\n");
+        for (Map.Entry<String, Long> counter : counters().entrySet()) {
+            if (counter.getValue() != 0) {
+                sb.append(String.format("  %-32s %d%n", counter.getKey(), counter.getValue()));
+            }
+        }
+        for (Map.Entry<String, Histogram> phase : phases().entrySet()) {
+            Histogram h = phase.getValue();
+            sb.append(String.format("  %-8s count %d, total %.1f ms, p50 %.1f us, p99 %.1f us, max %.1f us%n",
+                    phase.getKey(), h.count(), h.total() / 1e6, h.percentile(0.5) / 1e3, h.percentile(0.99) / 1e3, h.max() / 1e3));
+        }
+        List<Map.Entry<String, ClassStatistics>> slowest = slowestClasses();
+        if (!slowest.isEmpty()) {
+            sb.append("  slowest classes to render:\n");
+            for (Map.Entry<String, ClassStatistics> entry : slowest.subList(0, Math.min(10, slowest.size()))) {
+                ClassStatistics s = entry.getValue();
+                sb.append(String.format("    %-40s %d renders, %.1f ms, %d writes%n",
+                        entry.getKey(), s.renders.sum(), s.renderNanos.sum() / 1e6, s.writes.sum()));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String getJson() {
+        StringBuilder sb = new StringBuilder("{\n  \"counters\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Long> counter : counters().entrySet()) {
+            sb.append(separator).append("    \"").append(counter.getKey()).append("\": ").append(counter.getValue());
+            separator = ",\n";
+        }
+        sb.append("\n  },\n  \"phases\": {");
+        separator = "\n";
+        for (Map.Entry<String, Histogram> phase : phases().entrySet()) {
+            Histogram h = phase.getValue();
+            sb.append(separator).append(String.format(
+                    "    \"%s\": {\"count\": %d, \"totalNanos\": %d, \"p50Nanos\": %d, \"p99Nanos\": %d, \"maxNanos\": %d}",
+                    phase.getKey(), h.count(), h.total(), h.percentile(0.5), h.percentile(0.99), h.max()));
+            separator = ",\n";
+        }
+        sb.append("\n  },\n  \"classes\": {");
+        separator = "\n";
+        for (Map.Entry<String, ClassStatistics> entry : slowestClasses()) {
+            ClassStatistics s = entry.getValue();
+            sb.append(separator).append(String.format(
+                    "    \"%s\": {\"renders\": %d, \"renderNanos\": %d, \"writes\": %d, \"bytes\": %d}",
+                    entry.getKey(), s.renders.sum(), s.renderNanos.sum(), s.writes.sum(), s.bytes.sum()));
+            separator = ",\n";
+        }
+        return sb.append("\n  }\n}\n").toString();
+    }
+
+    String toCsv() {
+        StringBuilder sb = new StringBuilder("section,name,metric,value\n");
+        for (Map.Entry<String, Long> counter : counters().entrySet()) {
+            sb.append("counter,").append(counter.getKey()).append(",value,").append(counter.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> phase : phases().entrySet()) {
+            Histogram h = phase.getValue();
+            String prefix = "phase," + phase.getKey() + ",";
+            sb.append(prefix).append("count,").append(h.count()).append('\n');
+            sb.append(prefix).append("totalNanos,").append(h.total()).append('\n');
+            sb.append(prefix).append("p50Nanos,").append(h.percentile(0.5)).append('\n');
+            sb.append(prefix).append("p99Nanos,").append(h.percentile(0.99)).append('\n');
+            sb.append(prefix).append("maxNanos,").append(h.max()).append('\n');
+        }
+        for (Map.Entry<String, ClassStatistics> entry : slowestClasses()) {
+            ClassStatistics s = entry.getValue();
+            String prefix = "class," + entry.getKey() + ",";
+            sb.append(prefix).append("renders,").append(s.renders.sum()).append('\n');
+            sb.append(prefix).append("renderNanos,").append(s.renderNanos.sum()).append('\n');
+            sb.append(prefix).append("writes,").append(s.writes.sum()).append('\n');
+            sb.append(prefix).append("bytes,").append(s.bytes.sum()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /* JMX */
+
+    @Override
+    public long getModelsCreated() {
+        return modelsCreated.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    @Override
+    public long getFluentCalls() {
+        long total = 0;
+        for (LongAdder call : calls) {
+            total += call.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getRenders() {
+        return renders.sum();
+    }
+
+    @Override
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getSkippedWrites() {
+        return skippedWrites.sum();
+    }
+
+    @Override
+    public long getTypeCacheHits() {
+        return typeCacheHits.sum();
+    }
+
+    @Override
+    public long getTypeCacheMisses() {
+        return typeCacheMisses.sum();
+    }
+
+    @Override
+    public long getParseNanos() {
+        return parse.total();
+    }
+
+    @Override
+    public long getRenderNanos() {
+        return render.total();
+    }
+
+    @Override
+    public long getIoNanos() {
+        return io.total();
+    }
+}
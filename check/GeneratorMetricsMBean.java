@@ -0,0 +1,31 @@
+package check;
+
+// JMX view of GeneratorMetrics, registered as check:type=GeneratorMetrics
+public interface GeneratorMetricsMBean {
+
+    long getModelsCreated();
+
+    long getFluentCalls();
+
+    long getRenders();
+
+    long getWrites();
+
+    long getBytesWritten();
+
+    long getSkippedWrites();
+
+    long getTypeCacheHits();
+
+    long getTypeCacheMisses();
+
+    long getParseNanos();
+
+    long getRenderNanos();
+
+    long getIoNanos();
+
+    String getSummary();
+
+    String getJson();
+}
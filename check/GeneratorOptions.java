@@ -0,0 +1,95 @@
+package check;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+// The options BatchGenerator and SourceExtractor have in common, and how both set CheckThat up:
+//   --threads N  the number of threads the tests run on, the number of processors by default
+//   --verify     compile the generated classes, the same as -Dcheckthat.verify=true
+//   --no-cache   run every test, see GenerationCache
+//   --merge      complete existing classes instead of reporting them, see SourceMerger
+// The options of only one of the generators are declared by it, every other argument is kept in
+// the order given.
+class GeneratorOptions {
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean verify = Boolean.getBoolean("checkthat.verify");
+    boolean cached = true;
+    boolean merge = false;
+    final List<String> arguments = new ArrayList<>();
+    private final Map<String, String> values = new HashMap<>();
+    private final Set<String> flags = new HashSet<>();
+
+    // valueOptions are followed by a value, flagOptions are not
+    static GeneratorOptions parse(String[] args, Set<String> valueOptions, Set<String> flagOptions) {
+        GeneratorOptions options = new GeneratorOptions();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                options.threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--verify")) {
+                options.verify = true;
+            } else if (args[i].equals("--no-cache")) {
+                options.cached = false;
+            } else if (args[i].equals("--merge")) {
+                options.merge = true;
+            } else if (valueOptions.contains(args[i]) && i + 1 < args.length) {
+                options.values.put(args[i], args[++i]);
+            } else if (flagOptions.contains(args[i])) {
+                options.flags.add(args[i]);
+            } else {
+                options.arguments.add(args[i]);
+            }
+        }
+        return options;
+    }
+
+    // The value of an option declared by the generator, or null if it was not given
+    String value(String option) {
+        return values.get(option);
+    }
+
+    boolean isSet(String flag) {
+        return flags.contains(flag);
+    }
+
+    // Sets CheckThat up to generate a whole suite at once. Returns the cache of the earlier runs,
+    // or null with --no-cache.
+    GenerationCache apply() throws IOException {
+        CheckThat.setDeferWrites(true);
+        CheckThat.setResolveDependencies(true);
+        CheckThat.setVerify(verify);
+        if (merge) {
+            CheckThat.setMerge(true);
+        }
+        return cached ? CheckThat.loadCache() : null;
+    }
+
+    // Runs the task for every input on its own pool of threads, the results are in the order of the inputs
+    static <T> List<BatchGenerator.Result> runParallel(List<T> inputs, int threads, Function<T, BatchGenerator.Result> task)
+            throws InterruptedException, ExecutionException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Callable<BatchGenerator.Result>> tasks = new ArrayList<>();
+            for (T input : inputs) {
+                tasks.add(() -> task.apply(input));
+            }
+            List<BatchGenerator.Result> results = new ArrayList<>();
+            for (Future<BatchGenerator.Result> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package check;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Maps simple type names to the fully qualified names that have to be imported for them.
+// The built-in table can be extended with -Dcheckthat.imports=<file>, a file listing one fully
+// qualified name per line (empty lines and lines starting with # are ignored).
+// Simple names that map to more than one class are left unresolved and reported once.
+class ImportIndex {
+
+    // Names that stand for the same class in nearly every project. Names such as Date (java.util or
+    // java.sql) that commonly mean different classes are left out.
+    private static final List<String> builtIn = Arrays.asList(
+            "java.util.ArrayDeque",
+            "java.util.ArrayList",
+            "java.util.Arrays",
+            "java.util.Collection",
+            "java.util.Collections",
+            "java.util.Comparator",
+            "java.util.Deque",
+            "java.util.HashMap",
+            "java.util.HashSet",
+            "java.util.Iterator",
+            "java.util.LinkedHashMap",
+            "java.util.LinkedHashSet",
+            "java.util.LinkedList",
+            "java.util.List",
+            "java.util.Map",
+            "java.util.Objects",
+            "java.util.Optional",
+            "java.util.PriorityQueue",
+            "java.util.Queue",
+            "java.util.Random",
+            "java.util.Scanner",
+            "java.util.Set",
+            "java.util.Stack",
+            "java.util.TreeMap",
+            "java.util.TreeSet",
+            "java.util.function.BiFunction",
+            "java.util.function.Consumer",
+            "java.util.function.Function",
+            "java.util.function.Predicate",
+            "java.util.function.Supplier",
+            "java.io.File",
+            "java.io.FileNotFoundException",
+            "java.io.IOException",
+            "java.io.Serializable",
+            "java.time.Duration",
+            "java.time.LocalDate",
+            "java.time.LocalDateTime",
+            "java.time.LocalTime"
+    );
+
+    // The names listed in the -Dcheckthat.imports file
+    private static final List<String> configured = loadConfigured();
+    private static final ImportIndex instance = load();
+
+    private final Map<String, String> bySimpleName;
+
+    ImportIndex(List<String> qualifiedNames) {
+        Map<String, TreeSet<String>> candidates = new TreeMap<>();
+        for (String qualifiedName : qualifiedNames) {
+            candidates.computeIfAbsent(simpleName(qualifiedName), k -> new TreeSet<>()).add(qualifiedName);
+        }
+
+        bySimpleName = new HashMap<>();
+        List<String> ambiguous = new ArrayList<>();
+        for (Map.Entry<String, TreeSet<String>> entry : candidates.entrySet()) {
+            if (entry.getValue().size() == 1) {
+                bySimpleName.put(entry.getKey(), entry.getValue().first());
+            } else {
+                ambiguous.add(entry.getKey() + " (" + String.join(", ", entry.getValue()) + ")");
+            }
+        }
+        if (!ambiguous.isEmpty()) {
+            System.err.println("CheckThat: ambiguous simple names are not imported: " + String.join(", ", ambiguous));
+        }
+    }
+
+    static ImportIndex get() {
+        return instance;
+    }
+
+    // Returns the class to import for a simple name, or null if it is not known
+    String resolve(String simpleName) {
+        return bySimpleName.get(simpleName);
+    }
+
+    // The names added with -Dcheckthat.imports, in the order they are listed
+    static List<String> configuredNames() {
+        return configured;
+    }
+
+    private static ImportIndex load() {
+        List<String> qualifiedNames = new ArrayList<>(builtIn);
+        qualifiedNames.addAll(configured);
+        return new ImportIndex(qualifiedNames);
+    }
+
+    private static List<String> loadConfigured() {
+        String file = System.getProperty("checkthat.imports");
+        if (file == null) {
+            return List.of();
+        }
+        List<String> qualifiedNames = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(Paths.get(file))) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    qualifiedNames.add(line);
+                }
+            }
+        } catch (IOException | InvalidPathException e) {
+            // Thrown from here it would break every later use of CheckThat
+            System.err.println("CheckThat: cannot read the imports file " + file + " given with -Dcheckthat.imports ("
+                    + e + "), only the built-in imports are used");
+            return List.of();
+        }
+        return Collections.unmodifiableList(qualifiedNames);
+    }
+
+    private static String simpleName(String qualifiedName) {
+        return qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1);
+    }
+}
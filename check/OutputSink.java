@@ -0,0 +1,325 @@
+package check;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+// Destination of the generated sources, selected with -Dcheckthat.output:
+//   direct        writes each file on the calling thread (default)
+//   write-behind  hands the files to a background thread, so that tests never wait for the disk
+//   memory        keeps the files in memory only, see CheckThat.generatedFiles()
+//   zip:<file>    collects the files in memory and stores them in one zip archive
+//   jar:<file>    the same, as a jar archive
+interface OutputSink {
+
+    boolean exists(Path path) throws IOException;
+
+    // The current content of the file, or null if it does not exist
+    byte[] read(Path path) throws IOException;
+
+    void write(Path path, byte[] content) throws IOException;
+
+    // Returns once everything written so far is stored
+    void drain() throws IOException;
+
+    // Whether the files outlive the JVM
+    default boolean isPersistent() {
+        return true;
+    }
+
+    static OutputSink create(String name) {
+        if (name.startsWith("zip:") || name.startsWith("jar:")) {
+            try {
+                return new ArchiveSink(Paths.get(name.substring(4)), name.startsWith("jar:"));
+            } catch (IOException e) {
+                throw new RuntimeException(e.toString());
+            }
+        }
+        switch (name) {
+            case "direct":
+                return new DirectSink();
+            case "write-behind":
+                return new WriteBehindSink(new DirectSink());
+            case "memory":
+                return new MemorySink();
+            default:
+                throw new IllegalArgumentException("Unknown output: " + name);
+        }
+    }
+
+    // An empty file next to target that its content is written to before it is moved in place.
+    // It is created like any other file, so it gets the permissions the umask gives rather than
+    // the owner-only ones of Files.createTempFile, and it takes over those of an existing target.
+    private static Path temporaryFile(Path directory, Path target) throws IOException {
+        while (true) {
+            Path temporary = directory.resolve(target.getFileName() + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                Files.createFile(temporary);
+            } catch (FileAlreadyExistsException e) {
+                continue;
+            }
+            try {
+                if (Files.exists(target)) {
+                    Files.setPosixFilePermissions(temporary, Files.getPosixFilePermissions(target));
+                }
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system, the file gets what the platform gives new files
+            } catch (IOException e) {
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+            return temporary;
+        }
+    }
+
+    // Writes to a temporary file that is then moved in place, so that a crash never leaves
+    // a half-written source file behind
+    class DirectSink implements OutputSink {
+
+        private final Set<Path> createdDirectories = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public boolean exists(Path path) {
+            return Files.exists(path);
+        }
+
+        @Override
+        public byte[] read(Path path) throws IOException {
+            return Files.exists(path) ? Files.readAllBytes(path) : null;
+        }
+
+        @Override
+        public void write(Path path, byte[] content) throws IOException {
+            Path directory = path.toAbsolutePath().getParent();
+            if (createdDirectories.add(directory)) {
+                try {
+                    Files.createDirectories(directory);
+                } catch (IOException e) {
+                    createdDirectories.remove(directory);
+                    throw e;
+                }
+            }
+
+            Path temporary = temporaryFile(directory, path);
+            try {
+                Files.write(temporary, content);
+                try {
+                    Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+        @Override
+        public void drain() {
+        }
+    }
+
+    // Queues the files for a single background thread. A file that is written again before the
+    // thread gets to it is only stored once, with its latest content.
+    class WriteBehindSink implements OutputSink {
+
+        private final OutputSink target;
+        private final Map<Path, byte[]> queued = new ConcurrentHashMap<>();
+        private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CheckThat writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private volatile IOException failure;
+
+        WriteBehindSink(OutputSink target) {
+            this.target = target;
+        }
+
+        @Override
+        public boolean exists(Path path) throws IOException {
+            return queued.containsKey(path) || target.exists(path);
+        }
+
+        @Override
+        public byte[] read(Path path) throws IOException {
+            byte[] content = queued.get(path);
+            return (content != null) ? content : target.read(path);
+        }
+
+        @Override
+        public void write(Path path, byte[] content) {
+            if (queued.put(path, content) == null) {
+                writer.execute(() -> store(path));
+            }
+        }
+
+        // The file stays queued until it is stored, so that it is visible to exists() and read()
+        private void store(Path path) {
+            byte[] content = queued.get(path);
+            try {
+                target.write(path, content);
+            } catch (IOException e) {
+                System.err.println("CheckThat: could not write " + path + ": " + e);
+                failure = e;
+            }
+            if (!queued.remove(path, content)) {
+                writer.execute(() -> store(path));
+            }
+        }
+
+        @Override
+        public void drain() throws IOException {
+            try {
+                // A file written again while it was being stored is queued once more
+                do {
+                    writer.submit(() -> { }).get();
+                } while (!queued.isEmpty());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+            target.drain();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    class MemorySink implements OutputSink {
+
+        final Map<Path, byte[]> files = new ConcurrentHashMap<>();
+
+        @Override
+        public boolean exists(Path path) {
+            return files.containsKey(path.normalize());
+        }
+
+        @Override
+        public byte[] read(Path path) {
+            return files.get(path.normalize());
+        }
+
+        @Override
+        public void write(Path path, byte[] content) {
+            files.put(path.normalize(), content);
+        }
+
+        @Override
+        public void drain() throws IOException {
+        }
+
+        @Override
+        public boolean isPersistent() {
+            return false;
+        }
+
+        // The stored files, sorted by path
+        Map<Path, byte[]> contents() {
+            return new TreeMap<>(files);
+        }
+    }
+
+    // Starts from the entries of the archive if it already exists, and rewrites the whole archive
+    // in one sequential write whenever something changed since the last drain
+    class ArchiveSink extends MemorySink {
+
+        private final Path archive;
+        private final boolean jar;
+        private volatile boolean changed = false;
+
+        ArchiveSink(Path archive, boolean jar) throws IOException {
+            this.archive = archive;
+            this.jar = jar;
+            if (Files.exists(archive)) {
+                try (ZipInputStream in = new ZipInputStream(Files.newInputStream(archive))) {
+                    for (ZipEntry entry; (entry = in.getNextEntry()) != null; ) {
+                        if (!entry.isDirectory() && !entry.getName().startsWith("META-INF/")) {
+                            files.put(Paths.get(entry.getName()), in.readAllBytes());
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void write(Path path, byte[] content) {
+            super.write(path, content);
+            changed = true;
+        }
+
+        @Override
+        public boolean isPersistent() {
+            return true;
+        }
+
+        @Override
+        public synchronized void drain() throws IOException {
+            if (!changed) {
+                return;
+            }
+            changed = false;
+
+            Path directory = archive.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temporary = temporaryFile(directory, archive);
+            try {
+                try (ZipOutputStream out = open(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                    for (Map.Entry<Path, byte[]> file : contents().entrySet()) {
+                        out.putNextEntry(new ZipEntry(entryName(file.getKey())));
+                        out.write(file.getValue());
+                        out.closeEntry();
+                    }
+                }
+                try {
+                    Files.move(temporary, archive, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary, archive, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                changed = true;
+                throw e;
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+        private ZipOutputStream open(OutputStream out) throws IOException {
+            if (!jar) {
+                return new ZipOutputStream(out);
+            }
+            Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            return new JarOutputStream(out, manifest);
+        }
+
+        private static String entryName(Path path) {
+            StringBuilder name = new StringBuilder();
+            for (Path element : path) {
+                name.append(name.length() == 0 ? "" : "/").append(element);
+            }
+            return name.toString();
+        }
+    }
+}
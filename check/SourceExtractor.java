@@ -0,0 +1,597 @@
+package check;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Generates the classes straight from the sources of the structural tests, without compiling or
+// running them, so that tests referring to classes that do not exist yet are no obstacle.
+// Usage: java -cp checkthat.jar check.SourceExtractor [--threads N] [--verify [--classpath CP]] [--no-cache] [--merge] <test source files or directories>
+// With --verify the generated classes are compiled and the problems are reported, together with
+// the tests if their classpath (JUnit) is given. Test sources that did not change since the last
+// run are skipped unless --no-cache is given, see GenerationCache. With --merge existing classes
+// are completed instead of reported, see SourceMerger.
+//
+// The CheckThat call chains of every test method are evaluated in the order JUnit runs the
+// methods. The arguments may be literals, concatenations, conditions and the String helpers of
+// CheckThat; a chain with any other argument is cut short there and reported.
+public class SourceExtractor {
+
+    private static final Set<String> STARTS = Set.of(
+            "theClass", "theClassWithParent", "theEnum", "theInterface", "theCheckedException", "theUncheckedException");
+
+    public static void main(String[] args) throws Exception {
+        GeneratorOptions options = GeneratorOptions.parse(args, Set.of("--classpath"), Set.of());
+        String classpath = options.value("--classpath");
+        if (options.arguments.isEmpty()) {
+            System.err.println("Usage: java -cp checkthat.jar check.SourceExtractor [--threads N] [--verify [--classpath CP]] [--no-cache] [--merge] <test source files or directories>");
+            System.exit(2);
+        }
+
+        List<Path> files = new ArrayList<>();
+        for (String root : options.arguments) {
+            try (Stream<Path> walk = Files.walk(Paths.get(root))) {
+                walk.filter(f -> f.toString().endsWith(".java")).sorted().forEach(files::add);
+            }
+        }
+
+        GenerationCache cache = options.apply();
+        long start = System.nanoTime();
+        Map<String, byte[]> inputs = new HashMap<>();
+        List<Path> outdated = new ArrayList<>();
+        for (Path file : files) {
+            byte[] input = Files.readAllBytes(file);
+            inputs.put(file.toString(), input);
+            if (cache == null || !cache.reuse(file.toString(), input)) {
+                outdated.add(file);
+            }
+        }
+        List<BatchGenerator.Result> results = run(outdated, options.threads);
+        CheckThat.flushPendingWrites();
+        BatchGenerator.record(results, cache, inputs);
+        long end = System.nanoTime();
+
+        for (BatchGenerator.Result result : results) {
+            if (result.tests > 0 || !result.failures.isEmpty()) {
+                System.out.println(result);
+            }
+        }
+        System.out.printf("%d test sources in %.1f ms%n", files.size(), (end - start) / 1e6);
+        if (outdated.size() < files.size()) {
+            System.out.println((files.size() - outdated.size()) + " unchanged test sources skipped");
+        }
+        if (options.verify) {
+            String javaClasspath = System.getProperty("java.class.path");
+            CheckThat.verifyGeneratedSources(classpath != null ? files : List.of(),
+                    classpath != null ? classpath + File.pathSeparator + javaClasspath : javaClasspath);
+        }
+    }
+
+    public static List<BatchGenerator.Result> run(List<Path> files, int threads)
+            throws InterruptedException, ExecutionException {
+        return GeneratorOptions.runParallel(files, threads, SourceExtractor::extract);
+    }
+
+    static BatchGenerator.Result extract(Path file) {
+        BatchGenerator.Result result = new BatchGenerator.Result(file.toString());
+        long start = System.nanoTime();
+        try {
+            List<Token> tokens = new Tokenizer(Files.readString(file)).tokenize();
+            Evaluator evaluator = new Evaluator(file, tokens, result);
+            for (MethodBody method : runOrder(methodsOf(tokens), result)) {
+                evaluator.evaluate(method);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            result.failures.add("cannot read: " + e.getMessage());
+        } finally {
+            CheckThat.setCallSite(null);
+            result.files = CheckThat.endTestClass();
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /* TOKENS */
+
+    enum Kind { IDENTIFIER, STRING, NUMBER, CHARACTER, SYMBOL }
+
+    static class Token {
+
+        final Kind kind;
+        final String text;
+        final int line;
+
+        Token(Kind kind, String text, int line) {
+            this.kind = kind;
+            this.text = text;
+            this.line = line;
+        }
+
+        boolean is(String symbol) {
+            return kind != Kind.STRING && text.equals(symbol);
+        }
+    }
+
+    // Splits Java source into identifiers, literals and single-character symbols, dropping comments.
+    // String literals and text blocks are decoded.
+    static class Tokenizer {
+
+        private final String source;
+        private int position = 0;
+        private int line = 1;
+
+        Tokenizer(String source) {
+            this.source = source;
+        }
+
+        List<Token> tokenize() {
+            List<Token> tokens = new ArrayList<>();
+            while (position < source.length()) {
+                char c = source.charAt(position);
+                if (c == '\n') {
+                    line++;
+                    position++;
+                } else if (Character.isWhitespace(c)) {
+                    position++;
+                } else if (source.startsWith("//", position)) {
+                    while (position < source.length() && source.charAt(position) != '\n') {
+                        position++;
+                    }
+                } else if (source.startsWith("/*", position)) {
+                    int end = source.indexOf("*/", position + 2);
+                    skipTo(end < 0 ? source.length() : end + 2);
+                } else if (source.startsWith("\"\"\"", position)) {
+                    int startLine = line;
+                    int end = source.indexOf("\"\"\"", position + 3);
+                    while (end > 0 && source.charAt(end - 1) == '\\') {
+                        end = source.indexOf("\"\"\"", end + 1);
+                    }
+                    if (end < 0) {
+                        throw new IllegalArgumentException("unterminated text block at line " + startLine);
+                    }
+                    String content = source.substring(source.indexOf('\n', position) + 1, end);
+                    skipTo(end + 3);
+                    tokens.add(new Token(Kind.STRING, content.stripIndent().translateEscapes(), startLine));
+                } else if (c == '"' || c == '\'') {
+                    int end = position + 1;
+                    while (end < source.length() && source.charAt(end) != c) {
+                        end += (source.charAt(end) == '\\') ? 2 : 1;
+                    }
+                    if (end >= source.length()) {
+                        throw new IllegalArgumentException("unterminated literal at line " + line);
+                    }
+                    String content = source.substring(position + 1, end).translateEscapes();
+                    tokens.add(new Token(c == '"' ? Kind.STRING : Kind.CHARACTER, content, line));
+                    position = end + 1;
+                } else if (Character.isJavaIdentifierStart(c)) {
+                    int end = position;
+                    while (end < source.length() && Character.isJavaIdentifierPart(source.charAt(end))) {
+                        end++;
+                    }
+                    tokens.add(new Token(Kind.IDENTIFIER, source.substring(position, end), line));
+                    position = end;
+                } else if (Character.isDigit(c)) {
+                    int end = position;
+                    while (end < source.length() && (Character.isLetterOrDigit(source.charAt(end)) || source.charAt(end) == '_'
+                            || source.charAt(end) == '.')) {
+                        end++;
+                    }
+                    tokens.add(new Token(Kind.NUMBER, source.substring(position, end), line));
+                    position = end;
+                } else {
+                    tokens.add(new Token(Kind.SYMBOL, String.valueOf(c), line));
+                    position++;
+                }
+            }
+            return tokens;
+        }
+
+        private void skipTo(int end) {
+            for (; position < end; position++) {
+                if (source.charAt(position) == '\n') {
+                    line++;
+                }
+            }
+        }
+    }
+
+    /* METHODS */
+
+    // A method or initializer block of the top-level class: its annotations and the tokens of its body
+    static class MethodBody {
+
+        final String name;
+        final List<String> annotations;
+        final int start;
+        final int end;
+
+        MethodBody(String name, List<String> annotations, int start, int end) {
+            this.name = name;
+            this.annotations = annotations;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean is(String annotation) {
+            return annotations.contains(annotation);
+        }
+    }
+
+    static List<MethodBody> methodsOf(List<Token> tokens) {
+        List<MethodBody> methods = new ArrayList<>();
+        int i = 0;
+        while (i < tokens.size() && !isTypeKeyword(tokens.get(i))) {
+            i++;
+        }
+        while (i < tokens.size() && !tokens.get(i).is("{")) {
+            i++;
+        }
+
+        int headerStart = i + 1;
+        for (i = i + 1; i < tokens.size() && !tokens.get(i).is("}"); i++) {
+            Token token = tokens.get(i);
+            if (token.is(";")) {
+                headerStart = i + 1;
+            } else if (token.is("(")) {
+                i = matching(tokens, i, "(", ")");
+            } else if (token.is("{")) {
+                int end = matching(tokens, i, "{", "}");
+                MethodBody method = member(tokens, headerStart, i, end);
+                if (method != null) {
+                    methods.add(method);
+                }
+                i = end;
+                headerStart = i + 1;
+            }
+        }
+        return methods;
+    }
+
+    // The method or initializer whose header spans [start, open), or null for nested types and field initializers
+    private static MethodBody member(List<Token> tokens, int start, int open, int end) {
+        List<String> annotations = new ArrayList<>();
+        String name = null;
+        for (int i = start; i < open; i++) {
+            Token token = tokens.get(i);
+            if (token.is("@") && i + 1 < open) {
+                i++;
+                while (i + 2 < open && tokens.get(i + 1).is(".")) {
+                    i += 2;
+                }
+                annotations.add(tokens.get(i).text);
+                if (i + 1 < open && tokens.get(i + 1).is("(")) {
+                    i = matching(tokens, i + 1, "(", ")");
+                }
+            } else if (isTypeKeyword(token) || token.is("=")) {
+                return null;
+            } else if (token.is("(") && name == null) {
+                name = tokens.get(i - 1).text;
+                i = matching(tokens, i, "(", ")");
+            }
+        }
+        if (name == null) {
+            // Only initializer blocks have no parameter list
+            boolean initializer = open == start || (open == start + 1 && tokens.get(start).is("static"));
+            if (!initializer) {
+                return null;
+            }
+            name = "<init>";
+            annotations.add("Initializer");
+        }
+        return new MethodBody(name, annotations, open + 1, end);
+    }
+
+    // Initializers first, then the tests the way JUnit orders them, each with the @BeforeEach and
+    // @AfterEach methods, surrounded by the @BeforeAll and @AfterAll methods
+    static List<MethodBody> runOrder(List<MethodBody> methods, BatchGenerator.Result result) {
+        List<MethodBody> order = new ArrayList<>();
+        methods = methods.stream()
+                .sorted(Comparator.comparingInt((MethodBody m) -> m.name.hashCode()).thenComparing(m -> m.name))
+                .collect(Collectors.toList());
+        select(methods, "Initializer", order);
+        select(methods, "BeforeAll", order);
+        for (MethodBody method : methods) {
+            if (!method.is("Test") && !method.is("ParameterizedTest") && !method.is("RepeatedTest")) {
+                continue;
+            }
+            result.tests++;
+            if (method.is("Disabled")) {
+                result.skipped++;
+                continue;
+            }
+            select(methods, "BeforeEach", order);
+            order.add(method);
+            select(methods, "AfterEach", order);
+        }
+        select(methods, "AfterAll", order);
+        return order;
+    }
+
+    private static void select(List<MethodBody> methods, String annotation, List<MethodBody> order) {
+        for (MethodBody method : methods) {
+            if (method.is(annotation)) {
+                order.add(method);
+            }
+        }
+    }
+
+    private static boolean isTypeKeyword(Token token) {
+        return token.kind == Kind.IDENTIFIER
+                && (token.text.equals("class") || token.text.equals("interface") || token.text.equals("enum") || token.text.equals("record"));
+    }
+
+    private static int matching(List<Token> tokens, int open, String opening, String closing) {
+        int depth = 0;
+        for (int i = open; i < tokens.size(); i++) {
+            if (tokens.get(i).is(opening)) {
+                depth++;
+            } else if (tokens.get(i).is(closing) && --depth == 0) {
+                return i;
+            }
+        }
+        return tokens.size() - 1;
+    }
+
+    /* EVALUATION */
+
+    static class CannotEvaluate extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        CannotEvaluate(Token token) {
+            super("line " + token.line + ": cannot evaluate '" + token.text + "'");
+        }
+    }
+
+    // Runs the CheckThat call chains found in method bodies through the real CheckThat
+    static class Evaluator {
+
+        private final Path file;
+        private final List<Token> tokens;
+        private final BatchGenerator.Result result;
+        // Local variables holding a model, e.g. CheckThat shape = theClass("Shape");
+        private final Map<String, CheckThat> variables = new HashMap<>();
+        private int position;
+
+        Evaluator(Path file, List<Token> tokens, BatchGenerator.Result result) {
+            this.file = file;
+            this.tokens = tokens;
+            this.result = result;
+        }
+
+        void evaluate(MethodBody method) {
+            for (position = method.start; position < method.end; ) {
+                int start = position;
+                String variable = assignedVariable(start);
+                try {
+                    CheckThat model = chain(method.end);
+                    if (model != null && variable != null) {
+                        variables.put(variable, model);
+                    }
+                } catch (CannotEvaluate e) {
+                    result.failures.add(method.name + ": " + e.getMessage());
+                } catch (InvocationTargetException e) {
+                    result.failures.add(method.name + ": line " + tokens.get(start).line + ": " + e.getCause());
+                }
+                if (position == start) {
+                    position++;
+                }
+            }
+        }
+
+        // Evaluates the chain starting at the current position, if there is one
+        private CheckThat chain(int end) throws CannotEvaluate, InvocationTargetException {
+            int start = skipCheckThatQualifier(position);
+            Token first = tokens.get(start);
+            if (first.kind != Kind.IDENTIFIER || start + 1 >= end || (start > 0 && tokens.get(start - 1).is(".") && start == position)) {
+                return null;
+            }
+
+            CheckThat model;
+            if (STARTS.contains(first.text) && tokens.get(start + 1).is("(")) {
+                position = start + 1;
+                model = (CheckThat) invoke(null, first, arguments(end));
+            } else if (first.text.equals("it") && tokens.get(start + 1).is(".")) {
+                position = start + 1;
+                model = CheckThat.it;
+            } else if (variables.containsKey(first.text) && tokens.get(start + 1).is(".")) {
+                position = start + 1;
+                model = variables.get(first.text);
+            } else {
+                return null;
+            }
+
+            while (position + 2 < end && tokens.get(position).is(".") && tokens.get(position + 2).is("(")) {
+                Token name = tokens.get(position + 1);
+                position += 2;
+                Object returned = invoke(model, name, arguments(end));
+                if (!(returned instanceof CheckThat)) {
+                    break;
+                }
+                model = (CheckThat) returned;
+            }
+            return model;
+        }
+
+        // CheckThat.theClass(...) or check.CheckThat.it
+        private int skipCheckThatQualifier(int i) {
+            if (i > 0 && tokens.get(i - 1).is(".")) {
+                return i;
+            }
+            if (tokens.get(i).is("check") && i + 2 < tokens.size() && tokens.get(i + 1).is(".")) {
+                i += 2;
+            }
+            if (tokens.get(i).is("CheckThat") && i + 2 < tokens.size() && tokens.get(i + 1).is(".")) {
+                i += 2;
+            }
+            return i;
+        }
+
+        // x in "x = theClass(...)" and "CheckThat x = theClass(...)"
+        private String assignedVariable(int start) {
+            if (start >= 2 && tokens.get(start - 1).is("=") && tokens.get(start - 2).kind == Kind.IDENTIFIER) {
+                return tokens.get(start - 2).text;
+            }
+            return null;
+        }
+
+        // The arguments of the call whose opening parenthesis is at the current position
+        private List<Object> arguments(int end) throws CannotEvaluate, InvocationTargetException {
+            List<Object> arguments = new ArrayList<>();
+            position++;
+            if (tokens.get(position).is(")")) {
+                position++;
+                return arguments;
+            }
+            while (position < end) {
+                arguments.add(expression(end));
+                Token next = tokens.get(position++);
+                if (next.is(")")) {
+                    return arguments;
+                }
+                if (!next.is(",")) {
+                    throw new CannotEvaluate(next);
+                }
+            }
+            throw new CannotEvaluate(tokens.get(end - 1));
+        }
+
+        private Object expression(int end) throws CannotEvaluate, InvocationTargetException {
+            Object value = term(end);
+            while (tokens.get(position).is("+")) {
+                position++;
+                Object right = term(end);
+                if (value instanceof Integer && right instanceof Integer) {
+                    value = (Integer) value + (Integer) right;
+                } else {
+                    value = String.valueOf(value) + right;
+                }
+            }
+            return value;
+        }
+
+        private Object term(int end) throws CannotEvaluate, InvocationTargetException {
+            Token token = tokens.get(position);
+            switch (token.kind) {
+                case STRING:
+                    position++;
+                    return token.text;
+                case CHARACTER:
+                    position++;
+                    return token.text.charAt(0);
+                case NUMBER:
+                    position++;
+                    try {
+                        return Integer.decode(token.text);
+                    } catch (NumberFormatException e) {
+                        throw new CannotEvaluate(token);
+                    }
+                case SYMBOL:
+                    if (token.is("-") && tokens.get(position + 1).kind == Kind.NUMBER) {
+                        position++;
+                        return -(Integer) term(end);
+                    }
+                    if (token.is("(")) {
+                        position++;
+                        Object value = expression(end);
+                        if (!tokens.get(position++).is(")")) {
+                            throw new CannotEvaluate(tokens.get(position - 1));
+                        }
+                        return value;
+                    }
+                    throw new CannotEvaluate(token);
+                default:
+                    if (token.is("null")) {
+                        position++;
+                        return null;
+                    }
+                    // Qualified names are resolved by their last part: Condition.VISIBLE_TO_ALL, CheckThat.withParams(...)
+                    while (tokens.get(position + 1).is(".") && tokens.get(position + 2).kind == Kind.IDENTIFIER) {
+                        position += 2;
+                    }
+                    Token name = tokens.get(position++);
+                    if (tokens.get(position).is("(")) {
+                        Object value = invoke(null, name, arguments(end));
+                        if (value instanceof CheckThat) {
+                            throw new CannotEvaluate(name);
+                        }
+                        return value;
+                    }
+                    try {
+                        return CheckThat.Condition.valueOf(name.text);
+                    } catch (IllegalArgumentException e) {
+                        throw new CannotEvaluate(name);
+                    }
+            }
+        }
+
+        // Calls the public method of CheckThat with the given name that accepts the arguments
+        private Object invoke(CheckThat target, Token name, List<Object> arguments) throws CannotEvaluate, InvocationTargetException {
+            CheckThat.setCallSite(file + ":" + name.line);
+            for (Method method : CheckThat.class.getMethods()) {
+                if (!method.getName().equals(name.text) || Modifier.isStatic(method.getModifiers()) != (target == null)) {
+                    continue;
+                }
+                Object[] converted = convert(method, arguments);
+                if (converted != null) {
+                    try {
+                        return method.invoke(target, converted);
+                    } catch (IllegalAccessException e) {
+                        throw new CannotEvaluate(name);
+                    }
+                }
+            }
+            throw new CannotEvaluate(name);
+        }
+
+        // The arguments as the parameters of the method, or null if they do not fit
+        private static Object[] convert(Method method, List<Object> arguments) {
+            Class<?>[] types = method.getParameterTypes();
+            int fixed = method.isVarArgs() ? types.length - 1 : types.length;
+            if (arguments.size() < fixed || (!method.isVarArgs() && arguments.size() != fixed)) {
+                return null;
+            }
+            Object[] converted = new Object[types.length];
+            for (int i = 0; i < fixed; i++) {
+                if (!fits(types[i], arguments.get(i))) {
+                    return null;
+                }
+                converted[i] = arguments.get(i);
+            }
+            if (method.isVarArgs()) {
+                Class<?> component = types[fixed].getComponentType();
+                Object rest = Array.newInstance(component, arguments.size() - fixed);
+                for (int i = fixed; i < arguments.size(); i++) {
+                    if (!fits(component, arguments.get(i))) {
+                        return null;
+                    }
+                    Array.set(rest, i - fixed, arguments.get(i));
+                }
+                converted[fixed] = rest;
+            }
+            return converted;
+        }
+
+        private static boolean fits(Class<?> type, Object argument) {
+            if (type == int.class) {
+                return argument instanceof Integer;
+            }
+            return argument == null ? !type.isPrimitive() : type.isInstance(argument);
+        }
+    }
+}
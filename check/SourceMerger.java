@@ -0,0 +1,480 @@
+package check;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Merges a generated class into the existing source of the class, for -Dcheckthat.merge=true.
+// The existing source is kept as it is, manual fixes included, and only the imports and members
+// it lacks are inserted: fields after its last field, constructors after its last constructor and
+// methods after its last method. Fields are matched by name, constructors and methods by name and
+// parameter types, so a member that was changed by hand is left alone.
+class SourceMerger {
+
+    private static final Pattern TYPE_DECLARATION = Pattern.compile("\\b(class|interface|enum|record)\\s+(\\w+)");
+    private static final Pattern ANNOTATION = Pattern.compile("@\\s*[\\w.]+");
+    private static final Pattern IDENTIFIER = Pattern.compile("[\\w$]+");
+
+    enum Kind { FIELD, CONSTRUCTOR, METHOD, OTHER }
+
+    static class Member {
+
+        final Kind kind;
+        final List<String> keys;
+        // From the first character of the member to after its last one
+        final int start;
+        final int end;
+
+        Member(Kind kind, List<String> keys, int start, int end) {
+            this.kind = kind;
+            this.keys = keys;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    // The imports of a source and the members of its top-level type
+    static class Source {
+
+        final String text;
+        final List<String> imports = new ArrayList<>();
+        // Where each of the imports starts
+        final List<Integer> importStarts = new ArrayList<>();
+        final List<Member> members = new ArrayList<>();
+        // Where imports are inserted: after the last import or the package declaration
+        int importsEnd = 0;
+        boolean hasPackage = false;
+        String typeName;
+        // After the opening brace of the top-level type, and at its closing brace
+        int bodyStart;
+        int bodyEnd;
+
+        Source(String text) {
+            this.text = text;
+        }
+    }
+
+    // Parses the imports and members, throws IllegalArgumentException if there is no type to merge into
+    static Source parse(String text) {
+        Source source = new Source(text);
+        int statementStart = 0;
+        int parens = 0;
+        int i = 0;
+        for (; i < text.length(); i++) {
+            int skipped = skip(text, i);
+            if (skipped != i) {
+                i = skipped - 1;
+                continue;
+            }
+            char c = text.charAt(i);
+            if (c == '(') {
+                parens++;
+            } else if (c == ')') {
+                parens--;
+            } else if (c == ';' && parens == 0) {
+                String statement = strip(text, statementStart, i).trim();
+                if (statement.startsWith("package")) {
+                    source.hasPackage = true;
+                    source.importsEnd = i + 1;
+                } else if (statement.startsWith("import")) {
+                    source.imports.add(statement.substring("import".length()).replaceAll("\\s+", " ").trim());
+                    source.importStarts.add(codeStart(text, statementStart));
+                    source.importsEnd = i + 1;
+                }
+                statementStart = i + 1;
+            } else if (c == '{' && parens == 0) {
+                break;
+            }
+        }
+        if (i >= text.length()) {
+            throw new IllegalArgumentException("no class, interface or enum found");
+        }
+        Matcher declaration = TYPE_DECLARATION.matcher(strip(text, statementStart, i));
+        if (!declaration.find()) {
+            throw new IllegalArgumentException("no class, interface or enum found");
+        }
+        source.typeName = declaration.group(2);
+        source.bodyStart = i + 1;
+        parseBody(source, declaration.group(1).equals("enum"));
+        return source;
+    }
+
+    private static void parseBody(Source source, boolean isEnum) {
+        String text = source.text;
+        int depth = 1;
+        int parens = 0;
+        int start = -1;
+        int headerEnd = -1;
+        boolean assigned = false;
+        boolean enumConstants = isEnum;
+        for (int i = source.bodyStart; i < text.length(); i++) {
+            int skipped = skip(text, i);
+            if (skipped != i) {
+                if (start < 0) {
+                    start = i;
+                }
+                i = skipped - 1;
+                continue;
+            }
+            char c = text.charAt(i);
+            if (start < 0 && !Character.isWhitespace(c)) {
+                start = i;
+            }
+            boolean ends = false;
+            if (c == '(') {
+                parens++;
+            } else if (c == ')') {
+                parens--;
+            } else if (c == '{') {
+                if (depth == 1 && parens == 0 && headerEnd < 0) {
+                    headerEnd = i;
+                }
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                if (depth == 0) {
+                    if (start >= 0 && start < i && !strip(text, start, i).isBlank()) {
+                        source.members.add(member(source, start, headerEnd < 0 ? i : headerEnd, i, enumConstants));
+                    }
+                    source.bodyEnd = i;
+                    return;
+                }
+                ends = depth == 1 && parens == 0 && !assigned && !enumConstants;
+            } else if (c == '=' && depth == 1 && parens == 0 && !isOperator(text, i)) {
+                assigned = true;
+                if (headerEnd < 0) {
+                    headerEnd = i;
+                }
+            } else if (c == ';' && depth == 1 && parens == 0) {
+                if (headerEnd < 0) {
+                    headerEnd = i;
+                }
+                ends = true;
+            }
+            if (ends) {
+                source.members.add(member(source, start, headerEnd, i + 1, enumConstants));
+                start = -1;
+                headerEnd = -1;
+                assigned = false;
+                enumConstants = false;
+            }
+        }
+        throw new IllegalArgumentException("unbalanced braces");
+    }
+
+    private static boolean isOperator(String text, int i) {
+        char previous = text.charAt(i - 1);
+        char next = (i + 1 < text.length()) ? text.charAt(i + 1) : ' ';
+        return next == '=' || previous == '=' || previous == '!' || previous == '<' || previous == '>';
+    }
+
+    private static Member member(Source source, int start, int headerEnd, int end, boolean enumConstants) {
+        if (enumConstants) {
+            return new Member(Kind.OTHER, List.of("enum constants"), start, end);
+        }
+        String header = ANNOTATION.matcher(withoutAnnotationArguments(strip(source.text, start, headerEnd))).replaceAll(" ").trim();
+        int parameters = header.indexOf('(');
+        Matcher nested = TYPE_DECLARATION.matcher(parameters < 0 ? header : header.substring(0, parameters));
+        if (nested.find()) {
+            return new Member(Kind.OTHER, List.of("type " + nested.group(2)), start, end);
+        }
+        if (parameters >= 0) {
+            String name = lastIdentifier(header.substring(0, parameters));
+            int close = header.lastIndexOf(')');
+            List<String> types = new ArrayList<>();
+            for (String parameter : splitTopLevel(header.substring(parameters + 1, Math.max(close, parameters + 1)))) {
+                String declaration = parameter.replaceAll("\\bfinal\\b", " ").trim();
+                if (!declaration.isEmpty()) {
+                    String type = declaration.substring(0, declaration.length() - lastIdentifier(declaration).length());
+                    types.add(type.replaceAll("\\s+", ""));
+                }
+            }
+            Kind kind = name.equals(source.typeName) ? Kind.CONSTRUCTOR : Kind.METHOD;
+            return new Member(kind, List.of(name + "(" + String.join(",", types) + ")"), start, end);
+        }
+        if (header.isEmpty() || header.equals("static")) {
+            return new Member(Kind.OTHER, List.of("initializer " + start), start, end);
+        }
+        List<String> keys = new ArrayList<>();
+        for (String declarator : splitTopLevel(header)) {
+            keys.add("field " + lastIdentifier(declarator.replace("[]", " ")));
+        }
+        return new Member(Kind.FIELD, keys, start, end);
+    }
+
+    // The source with the missing imports and members of the generated source inserted
+    static String merge(Source existing, String generated) {
+        Source source = parse(generated);
+        Set<String> present = new HashSet<>();
+        for (Member member : existing.members) {
+            present.addAll(member.keys);
+        }
+
+        TreeMap<Integer, List<Member>> insertions = new TreeMap<>();
+        for (Member member : source.members) {
+            if (member.kind != Kind.OTHER && member.keys.stream().noneMatch(present::contains)) {
+                insertions.computeIfAbsent(anchor(existing, member.kind), k -> new ArrayList<>()).add(member);
+            }
+        }
+        List<String> imports = new ArrayList<>();
+        for (String name : source.imports) {
+            if (!isImported(existing, name)) {
+                imports.add(name);
+            }
+        }
+        imports.sort(null);
+        if (insertions.isEmpty() && imports.isEmpty()) {
+            return existing.text;
+        }
+
+        StringBuilder merged = new StringBuilder(existing.text);
+        for (int offset : insertions.descendingKeySet()) {
+            merged.insert(offset, insertion(existing, source, offset, insertions.get(offset)));
+        }
+        if (!existing.imports.isEmpty()) {
+            // Every import goes before the first existing one that sorts after it, or after the last
+            TreeMap<Integer, StringBuilder> importInsertions = new TreeMap<>();
+            for (String name : imports) {
+                int next = 0;
+                while (next < existing.imports.size() && existing.imports.get(next).compareTo(name) < 0) {
+                    next++;
+                }
+                if (next < existing.imports.size()) {
+                    importInsertions.computeIfAbsent(existing.importStarts.get(next), k -> new StringBuilder())
+                            .append("import ").append(name).append(";\n");
+                } else {
+                    importInsertions.computeIfAbsent(existing.importsEnd, k -> new StringBuilder())
+                            .append("\nimport ").append(name).append(';');
+                }
+            }
+            for (int offset : importInsertions.descendingKeySet()) {
+                merged.insert(offset, importInsertions.get(offset));
+            }
+        } else if (!imports.isEmpty()) {
+            StringBuilder lines = new StringBuilder();
+            for (String name : imports) {
+                lines.append("import ").append(name).append(";\n");
+            }
+            if (existing.hasPackage) {
+                merged.insert(existing.importsEnd, "\n\n" + lines.substring(0, lines.length() - 1));
+            } else {
+                merged.insert(0, lines + "\n");
+            }
+        }
+        return merged.toString();
+    }
+
+    // Fields go after the last field, constructors after the last constructor or field, methods
+    // after the last method, constructor or field, and into an empty body otherwise. Comments on
+    // the rest of the line stay with the member before.
+    private static int anchor(Source existing, Kind kind) {
+        return lineEnd(existing.text, anchorMember(existing, kind));
+    }
+
+    private static int anchorMember(Source existing, Kind kind) {
+        List<Kind> after = (kind == Kind.FIELD) ? List.of(Kind.FIELD)
+                : (kind == Kind.CONSTRUCTOR) ? List.of(Kind.CONSTRUCTOR, Kind.FIELD)
+                : List.of(Kind.METHOD, Kind.CONSTRUCTOR, Kind.FIELD);
+        for (Kind anchorKind : after) {
+            for (int i = existing.members.size() - 1; i >= 0; i--) {
+                if (existing.members.get(i).kind == anchorKind) {
+                    return existing.members.get(i).end;
+                }
+            }
+        }
+        if (!existing.members.isEmpty() && existing.members.get(0).keys.contains("enum constants")) {
+            return existing.members.get(0).end;
+        }
+        return existing.bodyStart;
+    }
+
+    // The members one per line, fields next to each other and everything else separated by an
+    // empty line, like in a generated source
+    private static String insertion(Source existing, Source source, int offset, List<Member> members) {
+        StringBuilder text = new StringBuilder();
+        Kind previous = null;
+        for (Member member : existing.members) {
+            if (lineEnd(existing.text, member.end) == offset) {
+                previous = member.kind;
+            }
+        }
+        for (Member member : members) {
+            boolean adjacent = (previous == null && text.length() == 0) || (previous == Kind.FIELD && member.kind == Kind.FIELD);
+            text.append(adjacent ? "\n" : "\n\n");
+            text.append(source.text, lineStart(source.text, member.start), member.end);
+            previous = member.kind;
+        }
+        boolean intoBody = offset == lineEnd(existing.text, existing.bodyStart);
+        if (intoBody && !strip(existing.text, existing.bodyStart, existing.bodyEnd).isBlank()) {
+            text.append('\n');
+        } else if (intoBody && !existing.text.substring(offset, existing.bodyEnd).contains("\n")) {
+            // "class A {}"
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    private static boolean isImported(Source existing, String name) {
+        String simpleName = name.substring(name.lastIndexOf('.') + 1);
+        String packageName = name.substring(0, Math.max(name.lastIndexOf('.'), 0));
+        for (String imported : existing.imports) {
+            // A different class of the same name would clash, so it counts as imported too
+            if (imported.equals(name) || imported.equals(packageName + ".*") || imported.endsWith("." + simpleName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The end of the line at offset if only blanks and comments follow it there, offset otherwise
+    private static int lineEnd(String text, int offset) {
+        int i = offset;
+        while (i < text.length() && text.charAt(i) != '\n') {
+            char c = text.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\r') {
+                i++;
+            } else if (c == '/' && skip(text, i) != i) {
+                i = skip(text, i);
+            } else {
+                return offset;
+            }
+        }
+        while (i > offset && text.charAt(i - 1) == '\r') {
+            i--;
+        }
+        return i;
+    }
+
+    // The offset of the first character at or after offset that is not blank or in a comment
+    private static int codeStart(String text, int offset) {
+        int i = offset;
+        while (i < text.length()) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                i++;
+            } else if (skip(text, i) != i && text.charAt(i) == '/') {
+                i = skip(text, i);
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static int lineStart(String text, int offset) {
+        int start = offset;
+        while (start > 0 && (text.charAt(start - 1) == ' ' || text.charAt(start - 1) == '\t')) {
+            start--;
+        }
+        return start;
+    }
+
+    private static String lastIdentifier(String text) {
+        Matcher matcher = IDENTIFIER.matcher(text);
+        String last = "";
+        while (matcher.find()) {
+            last = matcher.group();
+        }
+        return last;
+    }
+
+    // Splits at the commas that are not inside brackets, type arguments included
+    private static List<String> splitTopLevel(String text) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '<' || c == '(' || c == '[' || c == '{') {
+                depth++;
+            } else if (c == '>' || c == ')' || c == ']' || c == '}') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                parts.add(text.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+
+    // Drops the parenthesized arguments of annotations, "@A(x = 1) int y" becomes "@A int y"
+    private static String withoutAnnotationArguments(String header) {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < header.length()) {
+            Matcher annotation = ANNOTATION.matcher(header);
+            if (header.charAt(i) == '@' && annotation.find(i) && annotation.start() == i) {
+                sb.append(annotation.group());
+                i = annotation.end();
+                int j = i;
+                while (j < header.length() && Character.isWhitespace(header.charAt(j))) {
+                    j++;
+                }
+                if (j < header.length() && header.charAt(j) == '(') {
+                    int depth = 0;
+                    for (; j < header.length(); j++) {
+                        depth += (header.charAt(j) == '(') ? 1 : (header.charAt(j) == ')') ? -1 : 0;
+                        if (depth == 0) {
+                            break;
+                        }
+                    }
+                    i = j + 1;
+                }
+            } else {
+                sb.append(header.charAt(i++));
+            }
+        }
+        return sb.toString();
+    }
+
+    // The text without comments, which are replaced by a space
+    private static String strip(String text, int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; ) {
+            int skipped = skip(text, i);
+            if (skipped == i) {
+                sb.append(text.charAt(i++));
+            } else if (text.charAt(i) == '/') {
+                sb.append(' ');
+                i = skipped;
+            } else {
+                sb.append(text, i, Math.min(skipped, to));
+                i = skipped;
+            }
+        }
+        return sb.toString();
+    }
+
+    // The offset after the comment, string, text block or character literal at i, or i if there is none
+    private static int skip(String text, int i) {
+        char c = text.charAt(i);
+        char next = (i + 1 < text.length()) ? text.charAt(i + 1) : 0;
+        if (c == '/' && next == '/') {
+            int end = text.indexOf('\n', i);
+            return (end < 0) ? text.length() : end;
+        }
+        if (c == '/' && next == '*') {
+            int end = text.indexOf("*/", i + 2);
+            return (end < 0) ? text.length() : end + 2;
+        }
+        if (c == '"' && text.startsWith("\"\"\"", i)) {
+            int end = text.indexOf("\"\"\"", i + 3);
+            while (end > 0 && text.charAt(end - 1) == '\\') {
+                end = text.indexOf("\"\"\"", end + 1);
+            }
+            return (end < 0) ? text.length() : end + 3;
+        }
+        if (c == '"' || c == '\'') {
+            int j = i + 1;
+            while (j < text.length() && text.charAt(j) != c && text.charAt(j) != '\n') {
+                j += (text.charAt(j) == '\\') ? 2 : 1;
+            }
+            return Math.min(j + 1, text.length());
+        }
+        return i;
+    }
+}
@@ -0,0 +1,166 @@
+package check;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// The bodies of the methods CheckThat derives on its own: getters, setters, toString(), hashCode(),
+// equals() and compareTo(). Each template is parsed once into literal text and ${slot}s, which are
+// filled by appending the parts in order.
+// The built-in templates can be replaced with -Dcheckthat.templates=<file>, or with a checkthat.templates
+// resource on the classpath. The file consists of sections: a line [name] followed by the template,
+// up to the next section (lines starting with # are ignored, trailing empty lines are dropped):
+//   [getter]
+//   return this.${field};
+class Templates {
+
+    private static final Map<String, String> overrides = load();
+
+    static final Template GETTER = template("getter", "return ${field};", "field");
+    static final Template SETTER = template("setter", "this.${field} = ${field};", "field");
+    static final Template TO_STRING = template("toString", "return super.toString();", "class");
+    static final Template HASH_CODE = template("hashCode", "return Objects.hash(${fields});", "fields");
+    static final Template EQUALS = template("equals",
+            "if(that != null && getClass().equals(that.getClass())) {\n"
+                    + "    ${class} t = (${class})that;\n"
+                    + "    return ${comparisons};\n"
+                    + "}\n"
+                    + "return false;",
+            "class", "comparisons");
+    // The comparisons of equals() for the different kinds of fields, and what joins them
+    static final Template EQUALS_PRIMITIVE = template("equals.primitive", "${field} == t.${field}", "field");
+    static final Template EQUALS_ARRAY = template("equals.array", "Arrays.equals(${field}, t.${field})", "field");
+    static final Template EQUALS_OBJECT = template("equals.object", "${field}.equals(${field})", "field");
+    static final Template EQUALS_SEPARATOR = template("equals.separator", " && ");
+    static final Template COMPARE_TO = template("compareTo", "return 0;", "class");
+
+    private static final List<String> names = List.of("getter", "setter", "toString", "hashCode", "equals",
+            "equals.primitive", "equals.array", "equals.object", "equals.separator", "compareTo");
+
+    static {
+        for (String name : overrides.keySet()) {
+            if (!names.contains(name)) {
+                throw new IllegalArgumentException("Unknown template [" + name + "], expected one of " + names);
+            }
+        }
+    }
+
+    // Literal text and slots in turn: literals[0] slot[0] literals[1] ... literals[n]
+    static class Template {
+
+        private final String[] literals;
+        // For each slot the index of its value in fill()
+        private final int[] slots;
+        private final int literalLength;
+
+        Template(String name, String text, String... slotNames) {
+            List<String> literals = new ArrayList<>();
+            List<Integer> slots = new ArrayList<>();
+            int start = 0;
+            for (int open; (open = text.indexOf("${", start)) >= 0; ) {
+                int close = text.indexOf('}', open);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unclosed ${ in template [" + name + "]");
+                }
+                int slot = Arrays.asList(slotNames).indexOf(text.substring(open + 2, close));
+                if (slot < 0) {
+                    throw new IllegalArgumentException("Unknown slot " + text.substring(open, close + 1)
+                            + " in template [" + name + "], expected one of " + Arrays.toString(slotNames));
+                }
+                literals.add(text.substring(start, open));
+                slots.add(slot);
+                start = close + 1;
+            }
+            literals.add(text.substring(start));
+
+            this.literals = literals.toArray(new String[0]);
+            this.slots = slots.stream().mapToInt(Integer::intValue).toArray();
+            this.literalLength = literals.stream().mapToInt(String::length).sum();
+        }
+
+        // The template with the values of its slots, in the order the slots were declared
+        String fill(String... values) {
+            int length = literalLength;
+            for (int slot : slots) {
+                length += values[slot].length();
+            }
+            StringBuilder sb = new StringBuilder(length);
+            for (int i = 0; i < slots.length; i++) {
+                sb.append(literals[i]).append(values[slots[i]]);
+            }
+            return sb.append(literals[slots.length]).toString();
+        }
+    }
+
+    // The loaded replacements in the format of the file, by name, empty without any
+    static String overridesText() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> override : new TreeMap<>(overrides).entrySet()) {
+            sb.append('[').append(override.getKey()).append("]\n").append(override.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static Template template(String name, String builtIn, String... slotNames) {
+        return new Template(name, overrides.getOrDefault(name, builtIn), slotNames);
+    }
+
+    private static Map<String, String> load() {
+        String file = System.getProperty("checkthat.templates");
+        try {
+            if (file != null) {
+                return parse(Files.readAllLines(Paths.get(file)));
+            }
+            try (InputStream in = Templates.class.getClassLoader().getResourceAsStream("checkthat.templates")) {
+                if (in != null) {
+                    return parse(Arrays.asList(new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\r?\n")));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString());
+        }
+        return Map.of();
+    }
+
+    private static Map<String, String> parse(List<String> lines) {
+        Map<String, String> templates = new HashMap<>();
+        String name = null;
+        List<String> text = new ArrayList<>();
+        for (String line : lines) {
+            if (line.startsWith("#")) {
+                continue;
+            }
+            if (line.startsWith("[") && line.trim().endsWith("]")) {
+                if (name != null) {
+                    templates.put(name, join(text));
+                }
+                name = line.trim().substring(1, line.trim().length() - 1);
+                text.clear();
+            } else if (name != null) {
+                text.add(line);
+            } else if (!line.isBlank()) {
+                throw new IllegalArgumentException("Template text before the first [name]: " + line);
+            }
+        }
+        if (name != null) {
+            templates.put(name, join(text));
+        }
+        return templates;
+    }
+
+    private static String join(List<String> lines) {
+        int end = lines.size();
+        while (end > 0 && lines.get(end - 1).isBlank()) {
+            end--;
+        }
+        return String.join("\n", lines.subList(0, end));
+    }
+}
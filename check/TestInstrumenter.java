@@ -0,0 +1,357 @@
+package check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+
+// Java agent that neutralises the failing paths of JUnit assertions and assumptions, so that a
+// failed assertion in a structural test does not abort the rest of the CheckThat chain.
+// It is started by `java -jar checkthat.jar <test classpath>` (see BatchGenerator), or can be
+// added to a normal JUnit run with -javaagent:checkthat.jar.
+// The assertions that throw an error they build themselves, or that return what they checked, get
+// a body of their own:
+// - assertThrows and assertThrowsExactly run the executable and return what it threw if that is an
+//   instance of the expected type, null otherwise (assertThrowsExactly accepts subclasses too),
+// - assertDoesNotThrow runs the executable and returns the result of a supplier, or null if it threw,
+// - assertInstanceOf returns the value if it is an instance of the expected type, null otherwise.
+// assertTimeout reports through buildAndThrow, which is neutralised. assertTimeoutPreemptively is
+// out of scope: it runs the executable on a thread of its own, which has no CheckThat model.
+public class TestInstrumenter implements ClassFileTransformer {
+
+    private static final String JUNIT_PACKAGE = "org/junit/jupiter/api/";
+
+    public static void premain(String args, Instrumentation instrumentation) {
+        instrumentation.addTransformer(new TestInstrumenter());
+    }
+
+    public static void agentmain(String args, Instrumentation instrumentation) {
+        premain(args, instrumentation);
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (className == null || !className.startsWith(JUNIT_PACKAGE)) {
+            return null;
+        }
+        String simpleName = className.substring(JUNIT_PACKAGE.length());
+        if (!simpleName.startsWith("Assert") && !simpleName.equals("Assumptions")) {
+            return null;
+        }
+        try {
+            return neutralise(classfileBuffer);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("TestInstrumenter: could not instrument " + className + ": " + e);
+            return null;
+        }
+    }
+
+    // The methods through which JUnit reports a failure: AssertionUtils.fail*, AssertEquals.failNotEqual,
+    // AssertionFailureBuilder.buildAndThrow, Assertions.fail and Assumptions.throw*
+    private static boolean isFailingPath(String methodName) {
+        return methodName.startsWith("fail") || methodName.equals("buildAndThrow") || methodName.startsWith("throw");
+    }
+
+    // The constants the replaced bodies refer to, appended to the constant pool of every class
+    private static final class Constants {
+
+        static final int COUNT = 23;
+
+        final int throwable;
+        final int isInstance;
+        final int execute;
+        final int get;
+        final int object;
+        final int stackMapTable;
+
+        Constants(int base) {
+            throwable = base + 1;
+            isInstance = base + 7;
+            execute = base + 13;
+            get = base + 19;
+            object = base + 21;
+            stackMapTable = base + 22;
+        }
+
+        static void write(DataOutputStream out, int base) throws IOException {
+            utf8(out, "java/lang/Throwable");                        // base
+            reference(out, 7, base);                                 // base + 1: class Throwable
+            utf8(out, "java/lang/Class");
+            reference(out, 7, base + 2);
+            utf8(out, "isInstance");
+            utf8(out, "(Ljava/lang/Object;)Z");
+            reference(out, 12, base + 4, base + 5);
+            reference(out, 10, base + 3, base + 6);                  // base + 7: Class.isInstance
+            utf8(out, "org/junit/jupiter/api/function/Executable");
+            reference(out, 7, base + 8);
+            utf8(out, "execute");
+            utf8(out, "()V");
+            reference(out, 12, base + 10, base + 11);
+            reference(out, 11, base + 9, base + 12);                 // base + 13: Executable.execute
+            utf8(out, "org/junit/jupiter/api/function/ThrowingSupplier");
+            reference(out, 7, base + 14);
+            utf8(out, "get");
+            utf8(out, "()Ljava/lang/Object;");
+            reference(out, 12, base + 16, base + 17);
+            reference(out, 11, base + 15, base + 18);                // base + 19: ThrowingSupplier.get
+            utf8(out, "java/lang/Object");
+            reference(out, 7, base + 20);                            // base + 21: class Object
+            utf8(out, "StackMapTable");                              // base + 22
+        }
+
+        private static void utf8(DataOutputStream out, String value) throws IOException {
+            out.writeByte(1);
+            out.writeUTF(value);
+        }
+
+        private static void reference(DataOutputStream out, int tag, int... indexes) throws IOException {
+            out.writeByte(tag);
+            for (int index : indexes) {
+                out.writeShort(index);
+            }
+        }
+    }
+
+    // Copies the class file, replacing the code of the failing paths with a return of a default value
+    // and the code of the assertions listed above with their own
+    static byte[] neutralise(byte[] classFile) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(classFile.length);
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        out.writeInt(in.readInt());  // magic
+        out.writeInt(in.readInt());  // minor and major version
+        int constantCount = in.readUnsignedShort();
+        out.writeShort(constantCount + Constants.COUNT);
+        String[] utf8 = new String[constantCount];
+        for (int i = 1; i < constantCount; i++) {
+            int tag = in.readUnsignedByte();
+            out.writeByte(tag);
+            switch (tag) {
+                case 1:
+                    utf8[i] = in.readUTF();
+                    out.writeUTF(utf8[i]);
+                    break;
+                case 7: case 8: case 16: case 19: case 20:
+                    copy(in, out, 2);
+                    break;
+                case 15:
+                    copy(in, out, 3);
+                    break;
+                case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                    copy(in, out, 4);
+                    break;
+                case 5: case 6:
+                    copy(in, out, 8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+        Constants.write(out, constantCount);
+        Constants constants = new Constants(constantCount);
+
+        copy(in, out, 6);  // access flags, this class, super class
+        int interfaceCount = in.readUnsignedShort();
+        out.writeShort(interfaceCount);
+        copy(in, out, 2 * interfaceCount);
+
+        int fieldCount = in.readUnsignedShort();
+        out.writeShort(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            copy(in, out, 6);
+            copyAttributes(in, out);
+        }
+
+        int methodCount = in.readUnsignedShort();
+        out.writeShort(methodCount);
+        for (int i = 0; i < methodCount; i++) {
+            out.writeShort(in.readUnsignedShort());  // access flags
+            int nameIndex = in.readUnsignedShort();
+            int descriptorIndex = in.readUnsignedShort();
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+
+            int attributeCount = in.readUnsignedShort();
+            out.writeShort(attributeCount);
+            for (int j = 0; j < attributeCount; j++) {
+                int attributeNameIndex = in.readUnsignedShort();
+                int length = in.readInt();
+                Body body = "Code".equals(utf8[attributeNameIndex]) ? replacement(utf8[nameIndex], utf8[descriptorIndex], constants) : null;
+                if (body != null) {
+                    in.readUnsignedShort();  // max stack
+                    int maxLocals = in.readUnsignedShort();
+                    in.skipBytes(length - 4);
+                    body.write(out, attributeNameIndex, maxLocals, constants);
+                } else {
+                    out.writeShort(attributeNameIndex);
+                    out.writeInt(length);
+                    copy(in, out, length);
+                }
+            }
+        }
+
+        copyAttributes(in, out);
+        return buffer.toByteArray();
+    }
+
+    // The code of a method, with an optional handler that catches every Throwable between offset 0
+    // and handlerStart, where it is on the stack
+    private static class Body {
+
+        final int maxStack;
+        final int maxLocals;
+        final byte[] code;
+        final int protectedEnd;
+        final int handlerStart;
+
+        Body(int maxStack, int maxLocals, byte[] code) {
+            this(maxStack, maxLocals, code, -1, -1);
+        }
+
+        Body(int maxStack, int maxLocals, byte[] code, int protectedEnd, int handlerStart) {
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+            this.code = code;
+            this.protectedEnd = protectedEnd;
+            this.handlerStart = handlerStart;
+        }
+
+        // Straight-line code needs no stack map, a handler a single frame: the parameters as
+        // locals and the Throwable on the stack. No debug attributes.
+        void write(DataOutputStream out, int codeNameIndex, int originalMaxLocals, Constants constants) throws IOException {
+            boolean handled = handlerStart >= 0;
+            out.writeShort(codeNameIndex);
+            out.writeInt(12 + code.length + (handled ? 8 + 12 : 0));
+            out.writeShort(maxStack);
+            out.writeShort(Math.max(maxLocals, originalMaxLocals));
+            out.writeInt(code.length);
+            out.write(code);
+            if (!handled) {
+                out.writeShort(0);
+                out.writeShort(0);
+                return;
+            }
+            out.writeShort(1);
+            out.writeShort(0);
+            out.writeShort(protectedEnd);
+            out.writeShort(handlerStart);
+            out.writeShort(constants.throwable);
+            out.writeShort(1);
+            out.writeShort(constants.stackMapTable);
+            out.writeInt(6);
+            out.writeShort(1);
+            out.writeByte(64 + handlerStart);  // same_locals_1_stack_item_frame
+            out.writeByte(7);  // Object
+            out.writeShort(constants.throwable);
+        }
+    }
+
+    // The body that replaces the code of the method, or null if it is kept
+    private static Body replacement(String name, String descriptor, Constants constants) {
+        if (isFailingPath(name)) {
+            return defaultReturn(descriptor);
+        }
+        if ((name.equals("assertThrows") || name.equals("assertThrowsExactly"))
+                && descriptor.startsWith("(Ljava/lang/Class;Lorg/junit/jupiter/api/function/Executable;")) {
+            return new Body(4, 4, concat(
+                    new byte[]{0x2b},                                             // aload_1
+                    invoke(0xb9, constants.execute, 0),                           // executable.execute()
+                    new byte[]{0x01, (byte) 0xb0,                                 // aconst_null, areturn
+                            0x4e},                                                // astore_3
+                    instanceOrNull(constants, 0x2d, constants.throwable)),        // [null, thrown][isInstance(thrown)]
+                    6, 8);
+        }
+        if (name.equals("assertDoesNotThrow") && descriptor.startsWith("(Lorg/junit/jupiter/api/function/Executable;")) {
+            return new Body(1, 1, concat(
+                    new byte[]{0x2a},                                             // aload_0
+                    invoke(0xb9, constants.execute, 0),                           // executable.execute()
+                    new byte[]{(byte) 0xb1, 0x57, (byte) 0xb1}),                  // return, pop, return
+                    6, 7);
+        }
+        if (name.equals("assertDoesNotThrow") && descriptor.startsWith("(Lorg/junit/jupiter/api/function/ThrowingSupplier;")) {
+            return new Body(1, 1, concat(
+                    new byte[]{0x2a},                                             // aload_0
+                    invoke(0xb9, constants.get, 0),                               // supplier.get()
+                    new byte[]{(byte) 0xb0, 0x57, 0x01, (byte) 0xb0}),            // areturn, pop, aconst_null, areturn
+                    6, 7);
+        }
+        if (name.equals("assertInstanceOf") && descriptor.startsWith("(Ljava/lang/Class;Ljava/lang/Object;")) {
+            return new Body(4, 2, instanceOrNull(constants, 0x2b, constants.object));  // [null, actual][isInstance(actual)]
+        }
+        return null;
+    }
+
+    // Returns the local loaded by load if the expected type in local 0 accepts it, null otherwise,
+    // without a branch: new T[]{null, value}[expectedType.isInstance(value) ? 1 : 0]
+    private static byte[] instanceOrNull(Constants constants, int load, int arrayType) {
+        return concat(
+                new byte[]{0x05, (byte) 0xbd, (byte) (arrayType >> 8), (byte) arrayType},  // iconst_2, anewarray
+                new byte[]{0x59, 0x04, (byte) load, 0x53},                                 // dup, iconst_1, load, aastore
+                new byte[]{0x2a, (byte) load},                                             // aload_0, load
+                invoke(0xb6, constants.isInstance, 0),                                     // isInstance
+                new byte[]{0x32, (byte) 0xb0});                                            // aaload, areturn
+    }
+
+    private static byte[] invoke(int opcode, int index, int interfaceArguments) {
+        if (opcode == 0xb9) {
+            return new byte[]{(byte) opcode, (byte) (index >> 8), (byte) index, (byte) (interfaceArguments + 1), 0};
+        }
+        return new byte[]{(byte) opcode, (byte) (index >> 8), (byte) index};
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            code.writeBytes(part);
+        }
+        return code.toByteArray();
+    }
+
+    private static Body defaultReturn(String descriptor) {
+        byte[] code;
+        switch (descriptor.charAt(descriptor.indexOf(')') + 1)) {
+            case 'V':
+                code = new byte[]{(byte) 0xb1};  // return
+                break;
+            case 'J':
+                code = new byte[]{0x09, (byte) 0xad};  // lconst_0, lreturn
+                break;
+            case 'F':
+                code = new byte[]{0x0b, (byte) 0xae};  // fconst_0, freturn
+                break;
+            case 'D':
+                code = new byte[]{0x0e, (byte) 0xaf};  // dconst_0, dreturn
+                break;
+            case 'L': case '[':
+                code = new byte[]{0x01, (byte) 0xb0};  // aconst_null, areturn
+                break;
+            default:
+                code = new byte[]{0x03, (byte) 0xac};  // iconst_0, ireturn
+        }
+        return new Body(2, 0, code);
+    }
+
+    private static void copyAttributes(DataInputStream in, DataOutputStream out) throws IOException {
+        int attributeCount = in.readUnsignedShort();
+        out.writeShort(attributeCount);
+        for (int i = 0; i < attributeCount; i++) {
+            out.writeShort(in.readUnsignedShort());
+            int length = in.readInt();
+            out.writeInt(length);
+            copy(in, out, length);
+        }
+    }
+
+    private static void copy(DataInputStream in, DataOutputStream out, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        out.write(bytes);
+    }
+}
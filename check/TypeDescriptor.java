@@ -0,0 +1,267 @@
+package check;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Parsed form of a CheckThat type descriptor such as "array of int" or "HashMap of String to List of Integer".
+//
+//   type := name
+//         | "array" "of" type
+//         | "vararg" "of" type
+//         | "HashMap" "of" type "to" type
+//         | name "of" type
+//
+// Names may be qualified, in which case they are imported and simplified, and may contain
+// generic arguments in angle brackets, which are kept as they are.
+abstract class TypeDescriptor {
+
+    abstract void render(StringBuilder sb);
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        render(sb);
+        return sb.toString();
+    }
+
+    static final class Named extends TypeDescriptor {
+
+        final String name;
+        final String qualifiedName;  // null if the name was not qualified
+
+        Named(String name, String qualifiedName) {
+            this.name = name;
+            this.qualifiedName = qualifiedName;
+        }
+
+        @Override
+        void render(StringBuilder sb) {
+            sb.append(name);
+        }
+    }
+
+    static final class Array extends TypeDescriptor {
+
+        final TypeDescriptor element;
+
+        Array(TypeDescriptor element) {
+            this.element = element;
+        }
+
+        @Override
+        void render(StringBuilder sb) {
+            element.render(sb);
+            sb.append("[]");
+        }
+    }
+
+    static final class Vararg extends TypeDescriptor {
+
+        final TypeDescriptor element;
+
+        Vararg(TypeDescriptor element) {
+            this.element = element;
+        }
+
+        @Override
+        void render(StringBuilder sb) {
+            element.render(sb);
+            sb.append("...");
+        }
+    }
+
+    static final class Generic extends TypeDescriptor {
+
+        final Named base;
+        final TypeDescriptor argument;
+
+        Generic(Named base, TypeDescriptor argument) {
+            this.base = base;
+            this.argument = argument;
+        }
+
+        @Override
+        void render(StringBuilder sb) {
+            base.render(sb);
+            sb.append('<');
+            argument.render(sb);
+            sb.append('>');
+        }
+    }
+
+    static final class MapType extends TypeDescriptor {
+
+        final Named base;
+        final TypeDescriptor key;
+        final TypeDescriptor value;
+
+        MapType(Named base, TypeDescriptor key, TypeDescriptor value) {
+            this.base = base;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        void render(StringBuilder sb) {
+            base.render(sb);
+            sb.append('<');
+            key.render(sb);
+            sb.append(", ");
+            value.render(sb);
+            sb.append('>');
+        }
+    }
+
+    // Parses text[start..], recording the imports of the referenced names. Positions in error
+    // messages are relative to the whole text.
+    static TypeDescriptor parse(String text, int start, CheckThat.ImportTable imports) {
+        Parser parser = new Parser(text, start, imports);
+        TypeDescriptor type = parser.type();
+        if (parser.tokenStart < text.length()) {
+            throw parser.error("unexpected '" + parser.token() + "'");
+        }
+        return type;
+    }
+
+    // The types of the parameters of a rendered parameter list: "Map<String, Integer> counts,
+    // int... values" has the types Map<String, Integer> and int.... Comments, such as the one
+    // withArgsAsInParent() gives, are skipped, and so are parameters that are no "type name" pair.
+    static List<TypeDescriptor> parameterTypes(String parameters) {
+        List<TypeDescriptor> types = new ArrayList<>();
+        if (parameters == null) {
+            return types;
+        }
+        String text = parameters.replaceAll("/\\*.*?\\*/", " ");
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = (i < text.length()) ? text.charAt(i) : ',';
+            if (c == '<') {
+                depth++;
+            } else if (c == '>') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                String parameter = text.substring(start, i).trim();
+                start = i + 1;
+                int nameStart = parameter.lastIndexOf(' ');
+                if (nameStart < 0 || parameter.lastIndexOf('>') > nameStart) {
+                    continue;
+                }
+                try {
+                    types.add(parse(parameter.substring(0, nameStart).trim(), 0, new CheckThat.ImportTable()));
+                } catch (IllegalArgumentException e) {
+                    // not a type
+                }
+            }
+        }
+        return types;
+    }
+
+    private static final class Parser {
+
+        private final String text;
+        private final CheckThat.ImportTable imports;
+        private int tokenStart;
+        private int tokenEnd;
+
+        Parser(String text, int start, CheckThat.ImportTable imports) {
+            this.text = text;
+            this.imports = imports;
+            this.tokenEnd = start;
+            next();
+        }
+
+        // Tokens are separated by spaces, except inside angle brackets
+        private void next() {
+            int pos = tokenEnd;
+            while (pos < text.length() && text.charAt(pos) == ' ') {
+                pos++;
+            }
+            tokenStart = pos;
+            int depth = 0;
+            int bracket = -1;
+            for (; pos < text.length(); pos++) {
+                char c = text.charAt(pos);
+                if (c == ' ' && depth == 0) {
+                    break;
+                } else if (c == '<') {
+                    if (depth++ == 0) {
+                        bracket = pos;
+                    }
+                } else if (c == '>' && --depth < 0) {
+                    tokenStart = pos;
+                    throw error("unmatched '>'");
+                }
+            }
+            if (depth > 0) {
+                tokenStart = bracket;
+                throw error("unclosed '<'");
+            }
+            tokenEnd = pos;
+        }
+
+        private boolean atKeyword(String keyword) {
+            return tokenEnd - tokenStart == keyword.length() && text.startsWith(keyword, tokenStart);
+        }
+
+        private String token() {
+            return text.substring(tokenStart, tokenEnd);
+        }
+
+        TypeDescriptor type() {
+            if (tokenStart == tokenEnd) {
+                throw error("expected a type");
+            }
+            if (atKeyword("of") || atKeyword("to")) {
+                throw error("expected a type, found '" + token() + "'");
+            }
+            Named name = named(tokenStart, tokenEnd);
+            next();
+            if (!atKeyword("of")) {
+                return name;
+            }
+            next();
+            switch (name.name) {
+                case "array":
+                    return new Array(type());
+                case "vararg":
+                    return new Vararg(type());
+                case "HashMap":
+                    TypeDescriptor key = type();
+                    if (!atKeyword("to")) {
+                        throw error("expected 'to'");
+                    }
+                    next();
+                    return new MapType(name, key, type());
+                default:
+                    return new Generic(name, type());
+            }
+        }
+
+        // Qualified names are imported and simplified, simple names are imported if the ImportIndex knows them
+        private Named named(int start, int end) {
+            int bracket = text.indexOf('<', start);
+            int nameEnd = (bracket >= 0 && bracket < end) ? bracket : end;
+            while (nameEnd > start && text.charAt(nameEnd - 1) == '.') {
+                nameEnd--;  // "String..."
+            }
+            int dot = text.lastIndexOf('.', nameEnd - 1);
+            String name = text.substring(start, end);
+            if (dot >= start) {
+                String qualifiedName = text.substring(start, nameEnd);
+                imports.add(qualifiedName);
+                return new Named(text.substring(dot + 1, end), qualifiedName);
+            }
+            String className = ImportIndex.get().resolve(nameEnd == end ? name : text.substring(start, nameEnd));
+            if (className != null) {
+                imports.add(className);
+            }
+            return new Named(name, null);
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(
+                    "Invalid variable descriptor \"" + text + "\" at position " + tokenStart + ": " + message);
+        }
+    }
+}
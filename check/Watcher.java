@@ -0,0 +1,197 @@
+package check;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+// Keeps the generator running and regenerates the classes of the test classes that change.
+// The class directories of the test classpath (and optionally a test source directory, which is
+// then compiled into the first class directory) are watched. Changed test classes are loaded in a
+// fresh class loader and run again, while JUnit, the type cache and the JIT state stay warm.
+class Watcher {
+
+    // Changes are collected until the directories have been quiet for this long
+    private static final long QUIET_MILLIS = 50;
+
+    private final List<Path> entries;
+    private final List<Path> classDirectories = new ArrayList<>();
+    private final Path sources;
+    private final String classpath;
+    private final int threads;
+    private final boolean verify;
+    private final GenerationCache cache;
+    private final URLClassLoader libraries;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+
+    Watcher(List<Path> entries, Path sources, int threads, boolean verify, GenerationCache cache) throws IOException {
+        List<URL> jars = new ArrayList<>();
+        for (Path entry : entries) {
+            if (Files.isDirectory(entry)) {
+                classDirectories.add(entry);
+            } else {
+                jars.add(entry.toUri().toURL());
+            }
+        }
+        if (classDirectories.isEmpty()) {
+            throw new IllegalArgumentException("The test classpath has no class directory to watch");
+        }
+        this.sources = sources;
+        this.entries = entries;
+        this.classpath = entries.stream().map(Path::toString).collect(Collectors.joining(File.pathSeparator))
+                + File.pathSeparator + System.getProperty("java.class.path");
+        this.threads = threads;
+        this.verify = verify;
+        this.cache = cache;
+        // JUnit and the other jars are loaded once, the test classes again in every cycle
+        this.libraries = new URLClassLoader(jars.toArray(new URL[0]), Watcher.class.getClassLoader());
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    void run() throws Exception {
+        for (Path directory : classDirectories) {
+            register(directory);
+        }
+        if (sources != null) {
+            register(sources);
+        }
+
+        cycle(BatchGenerator.discover(classDirectories));
+        System.out.println("Watching for changes...");
+        try {
+            while (true) {
+                Set<Path> changed = new TreeSet<>();
+                collect(watchService.take(), changed);
+                for (WatchKey key; (key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null; ) {
+                    collect(key, changed);
+                }
+
+                List<Path> changedSources = changed.stream().filter(p -> p.toString().endsWith(".java")).collect(Collectors.toList());
+                if (!changedSources.isEmpty()) {
+                    // The compiled classes are picked up as changes of their own
+                    compile(changedSources);
+                }
+                List<String> testClasses = changedTestClasses(changed);
+                if (!testClasses.isEmpty()) {
+                    cycle(testClasses);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    private void cycle(List<String> testClasses) throws Exception {
+        long start = System.nanoTime();
+        CheckThat.allowRegeneration();
+        Map<String, byte[]> inputs = new HashMap<>();
+        List<BatchGenerator.Result> results;
+        try (URLClassLoader loader = new URLClassLoader(BatchGenerator.toUrls(classDirectories), libraries)) {
+            results = BatchGenerator.run(BatchGenerator.outdated(testClasses, loader, cache, inputs), loader, threads);
+            BatchGenerator.flush(loader);
+        }
+        BatchGenerator.record(results, cache, inputs);
+        for (BatchGenerator.Result result : results) {
+            System.out.println(result);
+        }
+        System.out.printf("%d test classes regenerated in %.1f ms%n", results.size(), (System.nanoTime() - start) / 1e6);
+        if (verify) {
+            BatchGenerator.verify(entries, sources);
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) throws IOException {
+        Path directory = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    register(path);
+                    // Files created before the directory was registered are not reported
+                    try (Stream<Path> files = Files.walk(path)) {
+                        files.filter(Files::isRegularFile).forEach(changed::add);
+                    }
+                }
+            } else if (Files.exists(path)) {
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    private void register(Path root) throws IOException {
+        try (Stream<Path> directories = Files.walk(root)) {
+            for (Path directory : directories.filter(Files::isDirectory).collect(Collectors.toList())) {
+                WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirectories.put(key, directory);
+            }
+        }
+    }
+
+    private void compile(List<Path> changedSources) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            System.err.println("CheckThat: no Java compiler available, changed sources are not compiled");
+            return;
+        }
+        List<String> arguments = new ArrayList<>(List.of(
+                "-cp", classpath, "-sourcepath", sources.toString(), "-d", classDirectories.get(0).toString()));
+        for (Path source : changedSources) {
+            arguments.add(source.toString());
+        }
+        if (compiler.run(null, null, null, arguments.toArray(new String[0])) != 0) {
+            System.err.println("CheckThat: compilation failed, waiting for the next change");
+        }
+    }
+
+    // The structural test classes among the changed class files; an inner class stands for its outer class
+    private List<String> changedTestClasses(Set<Path> changed) throws IOException {
+        Set<String> testClasses = new TreeSet<>();
+        for (Path file : changed) {
+            if (!file.toString().endsWith(".class")) {
+                continue;
+            }
+            for (Path directory : classDirectories) {
+                if (!file.startsWith(directory)) {
+                    continue;
+                }
+                String name = directory.relativize(file).toString().replace(File.separatorChar, '/');
+                int inner = name.indexOf('$');
+                if (inner >= 0) {
+                    name = name.substring(0, inner) + ".class";
+                }
+                Path outer = directory.resolve(name);
+                if (Files.exists(outer)) {
+                    BatchGenerator.addIfStructuralTest(testClasses, name, Files.readAllBytes(outer));
+                }
+            }
+        }
+        return new ArrayList<>(testClasses);
+    }
+}